@@ -0,0 +1,134 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Hamming prefilter index. Every row gets a signature of sign bits of its projections on
+// random hyperplanes, packed into longs; two vectors at a small angle agree on most bits.
+// A probe ranks rows by Long.bitCount of the XOR of signatures, which costs a few integer
+// instructions per row, and only the shortlist gets exact distances. Eigenface
+// coefficients are centred on the average face, so hyperplanes through the origin suit them.
+
+public class BinarySignatureIndex extends LockedGalleryIndex {
+    public static final int DEFAULT_BITS = 128;
+
+    private static final int SHORTLIST_FACTOR = 16;   // Default shortlist, in multiples of k
+    private static final int MIN_SHORTLIST = 128;
+    private static final long SEED = 42L;
+
+    private final int bits;
+    private final int words;
+
+    // Guarded by lock
+
+    private int dimension;
+    private double[] hyperplanes;         // bits × dimension, row-major; null until the dimension is known
+    private long[] signatures = new long[0];  // Row-major, words per row
+    private int signed;                   // Rows [0, signed) have signatures; later rows are scanned exactly
+
+    public BinarySignatureIndex() {
+        this(DEFAULT_BITS);
+    }
+
+    public BinarySignatureIndex(int bits) {
+        if (bits <= 0 || bits % Long.SIZE != 0) {
+            throw new IllegalArgumentException("Signature length must be a positive multiple of 64, got " + bits);
+        }
+        this.bits = bits;
+        this.words = bits / Long.SIZE;
+    }
+
+    @Override
+    public void build(FeatureMatrix vectors) {
+        lock.writeLock().lock();
+        try {
+            hyperplanes = null;
+            signed = 0;
+            if (vectors.size() == 0) {
+                return;
+            }
+            dimension = vectors.getDimension();
+            Random random = new Random(SEED);
+            hyperplanes = new double[bits * dimension];
+            for (int i = 0; i < hyperplanes.length; i++) {
+                hyperplanes[i] = random.nextGaussian();
+            }
+            for (int row = 0; row < vectors.size(); row++) {
+                sign(vectors, row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(FeatureMatrix vectors, int row) {
+        if (hyperplanes == null || vectors.getDimension() != dimension) {
+            build(vectors);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            sign(vectors, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // searchWidth is the number of rows re-ranked exactly, by default 16k (at least 128)
+
+    @Override
+    protected int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth,
+                                int size) {
+        int prefiltered = hyperplanes == null ? 0 : Math.min(signed, size);
+        if (prefiltered > 0) {
+            int shortlistSize = searchWidth > 0 ? searchWidth : Math.max(nearest.capacity() * SHORTLIST_FACTOR, MIN_SHORTLIST);
+            NearestNeighbours shortlist = new NearestNeighbours(Math.min(shortlistSize, prefiltered));
+            long[] signature = new long[words];
+            signature(probe, signature, 0);
+
+            double worst = Double.POSITIVE_INFINITY;
+            for (int row = 0, offset = 0; row < prefiltered; row++, offset += words) {
+                int hamming = 0;
+                for (int w = 0; w < words; w++) {
+                    hamming += Long.bitCount(signatures[offset + w] ^ signature[w]);
+                }
+                if (hamming < worst && shortlist.offer(hamming, row)) {
+                    worst = shortlist.worstDistance();
+                }
+            }
+            for (int i = 0; i < shortlist.size(); i++) {
+                int row = shortlist.getIndex(i);
+                nearest.offer(vectors.squaredDistance(probe, row, nearest.worstDistance()), row);
+            }
+        }
+        return prefiltered;
+    }
+
+    private void sign(FeatureMatrix vectors, int row) {
+        if (signatures.length < (row + 1) * words) {
+            signatures = Arrays.copyOf(signatures, Math.max(64, row * 2 + 2) * words);
+        }
+        signature(vectors.getRow(row), signatures, row * words);
+        signed = row + 1;
+    }
+
+    // Writes the sign bits of the vector's projections on every hyperplane to out[offset...]
+
+    private void signature(double[] vector, long[] out, int offset) {
+        for (int w = 0; w < words; w++) {
+            long word = 0;
+            for (int b = 0; b < Long.SIZE; b++) {
+                int plane = (w * Long.SIZE + b) * dimension;
+                double dot = 0;
+                for (int d = 0; d < dimension; d++) {
+                    dot += vector[d] * hyperplanes[plane + d];
+                }
+                if (dot >= 0) {
+                    word |= 1L << b;
+                }
+            }
+            out[offset + w] = word;
+        }
+    }
+}
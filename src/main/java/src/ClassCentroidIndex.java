@@ -0,0 +1,158 @@
+package src;
+
+import java.util.Arrays;
+
+// Two-stage class-centroid index. Each class (an entry of the feature space's
+// classifications) keeps a running centroid of its samples and a radius that bounds the
+// distance from the centroid to every sample. A probe ranks the classes by centroid
+// distance and scans their samples closest class first. By the triangle inequality no
+// sample of a class is closer than max(0, d(probe, centroid) - radius), so a class whose
+// bound squared is above the current k-th distance is skipped without changing the result.
+//
+// Adding a sample moves its class centroid by some shift; the radius grows by that shift
+// to stay a bound, and is recomputed exactly whenever the class has doubled since.
+
+public class ClassCentroidIndex extends LockedGalleryIndex {
+
+    // Slack on the bound, relative to the distances involved, for rounding in the square roots
+    private static final double BOUND_SLACK = 1e-9;
+
+    // Guarded by lock
+
+    private int dimension;
+    private int classCount;
+    private double[][] centroids = new double[0][];
+    private double[] radii = new double[0];
+    private int[][] members = new int[0][];       // Rows of each class, the first memberCounts[c] entries
+    private int[] memberCounts = new int[0];
+    private int[] tightenedCounts = new int[0];   // Member count when the radius was last recomputed
+    private int indexed;                          // Rows [0, indexed) are in a class; later rows are scanned exactly
+
+    @Override
+    public void build(FeatureMatrix vectors) {
+        lock.writeLock().lock();
+        try {
+            dimension = vectors.getDimension();
+            classCount = 0;
+            centroids = new double[0][];
+            radii = new double[0];
+            members = new int[0][];
+            memberCounts = new int[0];
+            tightenedCounts = new int[0];
+            indexed = 0;
+            for (int row = 0; row < vectors.size(); row++) {
+                insert(vectors, row);
+            }
+            for (int c = 0; c < classCount; c++) {
+                tighten(vectors, c);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(FeatureMatrix vectors, int row) {
+        if (vectors.getDimension() != dimension) {
+            build(vectors);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int c = insert(vectors, row);
+            if (memberCounts[c] >= 2 * tightenedCounts[c]) {
+                tighten(vectors, c);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // searchWidth caps the number of classes whose samples are scanned, which makes the
+    // search approximate; 0 scans every class the bound cannot rule out, and is exact
+
+    @Override
+    protected int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth,
+                                int size) {
+        int covered = Math.min(indexed, size);
+        if (covered > 0) {
+            NearestNeighbours ranked = new NearestNeighbours(classCount);
+            for (int c = 0; c < classCount; c++) {
+                if (memberCounts[c] > 0) {
+                    ranked.offer(EuclideanKernel.squaredDistance(probe, centroids[c]), c);
+                }
+            }
+            ranked.sort();
+
+            int limit = searchWidth > 0 ? Math.min(searchWidth, ranked.size()) : ranked.size();
+            for (int i = 0; i < limit; i++) {
+                int c = ranked.getIndex(i);
+                double distance = Math.sqrt(ranked.getDistance(i));
+                double gap = distance - radii[c] - BOUND_SLACK * (distance + radii[c]);
+                if (gap > 0 && gap * gap > nearest.worstDistance()) {
+                    continue;
+                }
+                int[] rows = members[c];
+                for (int j = 0, end = memberCounts[c]; j < end; j++) {
+                    int row = rows[j];
+                    if (row < size) {
+                        nearest.offer(vectors.squaredDistance(probe, row, nearest.worstDistance()), row);
+                    }
+                }
+            }
+        }
+        return covered;
+    }
+
+    // Adds a row to its class, moving the centroid and widening the radius, and returns the class
+
+    private int insert(FeatureMatrix vectors, int row) {
+        int c = vectors.getClassId(row);
+        if (c >= centroids.length) {
+            int capacity = Math.max(16, Math.max(c + 1, centroids.length * 2));
+            centroids = Arrays.copyOf(centroids, capacity);
+            radii = Arrays.copyOf(radii, capacity);
+            members = Arrays.copyOf(members, capacity);
+            memberCounts = Arrays.copyOf(memberCounts, capacity);
+            tightenedCounts = Arrays.copyOf(tightenedCounts, capacity);
+        }
+        classCount = Math.max(classCount, c + 1);
+
+        double[] vector = vectors.getRow(row);
+        int count = memberCounts[c];
+        if (count == 0) {
+            centroids[c] = vector;
+            radii[c] = 0;
+            members[c] = new int[8];
+        } else {
+            double[] centroid = centroids[c];
+            double shift = 0;
+            for (int d = 0; d < dimension; d++) {
+                double step = (vector[d] - centroid[d]) / (count + 1);
+                centroid[d] += step;
+                shift += step * step;
+            }
+            radii[c] = Math.max(radii[c] + Math.sqrt(shift),
+                                Math.sqrt(EuclideanKernel.squaredDistance(vector, centroid)));
+        }
+
+        if (count == members[c].length) {
+            members[c] = Arrays.copyOf(members[c], count * 2);
+        }
+        members[c][count] = row;
+        memberCounts[c] = count + 1;
+        indexed = row + 1;
+        return c;
+    }
+
+    // Recomputes a class radius exactly from its members
+
+    private void tighten(FeatureMatrix vectors, int c) {
+        double radius = 0;
+        for (int j = 0; j < memberCounts[c]; j++) {
+            radius = Math.max(radius, vectors.squaredDistance(centroids[c], members[c][j]));
+        }
+        radii[c] = Math.sqrt(radius);
+        tightenedCounts[c] = memberCounts[c];
+    }
+}
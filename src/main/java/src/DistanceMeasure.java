@@ -4,4 +4,23 @@ public interface DistanceMeasure {
     //Calculating the distance between two feature vectors.
 
     double calculateDistance(FeatureVector vector1, FeatureVector vector2);
+
+    //Calculating the distance between a probe and one row of a packed gallery.
+    //The default copies the row into a FeatureVector; measures should override it to read the row in place.
+
+    default double calculateDistance(FeatureVector probe, FeatureMatrix gallery, int row) {
+        FeatureVector fv = new FeatureVector();
+        fv.setFeatureVector(gallery.getRow(row));
+        fv.setClassification(gallery.getClassId(row));
+        return calculateDistance(probe, fv);
+    }
+
+    //Calculating the distances between a probe and the rows [from, to) of a packed gallery.
+    //out[i] receives the distance to row from + i.
+
+    default void calculateDistances(FeatureVector probe, FeatureMatrix gallery, int from, int to, double[] out) {
+        for (int row = from; row < to; row++) {
+            out[row - from] = calculateDistance(probe, gallery, row);
+        }
+    }
 }
\ No newline at end of file
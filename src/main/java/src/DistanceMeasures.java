@@ -0,0 +1,140 @@
+package src;
+
+import Jama.Matrix;
+
+public final class DistanceMeasures {
+
+    private DistanceMeasures() {
+    }
+
+    //Cosine distance (1 - cosine similarity), insensitive to the overall scale of a face
+
+    public static final DistanceMeasure COSINE_DISTANCE = new RowKernelMeasure() {
+        @Override
+        double distance(double[] a, double[] b, int offset, int dimension) {
+            double dot = 0;
+            double normA = 0;
+            double normB = 0;
+            for (int i = 0; i < dimension; i++) {
+                double x = a[i];
+                double y = b[offset + i];
+                dot += x * y;
+                normA += x * x;
+                normB += y * y;
+            }
+            if (normA == 0 || normB == 0) {
+                return 1.0;
+            }
+            return 1.0 - dot / Math.sqrt(normA * normB);
+        }
+    };
+
+    //Manhattan (L1) distance
+
+    public static final DistanceMeasure MANHATTAN_DISTANCE = new RowKernelMeasure() {
+        @Override
+        double distance(double[] a, double[] b, int offset, int dimension) {
+            double sum = 0;
+            for (int i = 0; i < dimension; i++) {
+                sum += Math.abs(a[i] - b[offset + i]);
+            }
+            return sum;
+        }
+    };
+
+    //Chebyshev (L-infinity) distance, the largest difference in any single coefficient
+
+    public static final DistanceMeasure CHEBYSHEV_DISTANCE = new RowKernelMeasure() {
+        @Override
+        double distance(double[] a, double[] b, int offset, int dimension) {
+            double max = 0;
+            for (int i = 0; i < dimension; i++) {
+                max = Math.max(max, Math.abs(a[i] - b[offset + i]));
+            }
+            return max;
+        }
+    };
+
+    //Mahalanobis distance in eigenface space. Eigenface coefficients are uncorrelated, so this
+    //is the Euclidean distance after dividing each coefficient's square by its variance.
+    //The eigenface columns are not unit length: column j has norm sqrt(lambda_j), so the
+    //coefficients of the training faces have energy lambda_j^2 and variance lambda_j^2 / N.
+
+    public static DistanceMeasure mahalanobis(TSCD eigenFaces) {
+        if (!eigenFaces.isTrained()) {
+            throw new IllegalStateException("System not trained yet");
+        }
+
+        Matrix eigenValues = eigenFaces.getEigenValues();
+        int faceCount = Math.max(1, eigenFaces.getTrainingCount());
+        int count = Math.min(eigenValues.getRowDimension(), eigenValues.getColumnDimension());
+        double[] weights = new double[count];
+        for (int i = 0; i < count; i++) {
+            double value = eigenValues.get(i, i);
+            weights[i] = value > 0 ? faceCount / (value * value) : 0;
+        }
+        return mahalanobis(weights);
+    }
+
+    //Mahalanobis distance from explicit per-coefficient weights (inverse variances).
+    //Coefficients beyond the end of the weights are ignored.
+
+    public static DistanceMeasure mahalanobis(double[] weights) {
+        final double[] w = weights.clone();
+        return new RowKernelMeasure() {
+            @Override
+            double distance(double[] a, double[] b, int offset, int dimension) {
+                int n = Math.min(dimension, w.length);
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    double diff = a[i] - b[offset + i];
+                    sum += diff * diff * w[i];
+                }
+                return Math.sqrt(sum);
+            }
+        };
+    }
+
+    // Base for measures defined by a kernel over a probe and one row of a flat array.
+    // The single, row and batch forms all run the same kernel, kept free of branches
+    // and calls in its inner loop so that the JIT can vectorize it. Rows of a
+    // single-precision gallery are widened into a scratch row first.
+
+    private abstract static class RowKernelMeasure implements DistanceMeasure {
+
+        abstract double distance(double[] a, double[] b, int offset, int dimension);
+
+        @Override
+        public double calculateDistance(FeatureVector fv1, FeatureVector fv2) {
+            double[] a = fv1.getFeatureVector();
+            return distance(a, fv2.getFeatureVector(), 0, a.length);
+        }
+
+        @Override
+        public double calculateDistance(FeatureVector probe, FeatureMatrix gallery, int row) {
+            int dimension = gallery.getDimension();
+            if (gallery.isSinglePrecision()) {
+                return distance(probe.getFeatureVector(), gallery.getRow(row), 0, dimension);
+            }
+            return distance(probe.getFeatureVector(), gallery.getData(), row * dimension, dimension);
+        }
+
+        @Override
+        public void calculateDistances(FeatureVector probe, FeatureMatrix gallery, int from, int to, double[] out) {
+            double[] a = probe.getFeatureVector();
+            double[] data = gallery.getData();
+            int dimension = gallery.getDimension();
+            if (gallery.isSinglePrecision()) {
+                double[] scratch = new double[dimension];
+                for (int row = from; row < to; row++) {
+                    gallery.copyRow(row, scratch);
+                    out[row - from] = distance(a, scratch, 0, dimension);
+                }
+                return;
+            }
+            for (int row = from; row < to; row++) {
+                out[row - from] = distance(a, data, row * dimension, dimension);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package src;
+
+import java.nio.ByteBuffer;
+
+public final class EuclideanKernel {
+    // Dimensions accumulated between two checks against the bound
+    private static final int BLOCK = 4;
+
+    private EuclideanKernel() {
+    }
+
+    // Squared Euclidean distance between a and the row of b starting at offset.
+    // Stops as soon as the partial sum exceeds bound; the returned value is then
+    // only guaranteed to be greater than bound, which is all a ranking needs.
+
+    public static double squaredDistance(double[] a, double[] b, int offset, int dimension, double bound) {
+        double sum = 0;
+        int i = 0;
+        for (int end = dimension - BLOCK; i <= end; i += BLOCK) {
+            double d0 = a[i] - b[offset + i];
+            double d1 = a[i + 1] - b[offset + i + 1];
+            double d2 = a[i + 2] - b[offset + i + 2];
+            double d3 = a[i + 3] - b[offset + i + 3];
+            sum += d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        for (; i < dimension; i++) {
+            double d = a[i] - b[offset + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // Same as above against a single-precision row, accumulating in double
+
+    public static double squaredDistance(double[] a, float[] b, int offset, int dimension, double bound) {
+        double sum = 0;
+        int i = 0;
+        for (int end = dimension - BLOCK; i <= end; i += BLOCK) {
+            double d0 = a[i] - b[offset + i];
+            double d1 = a[i + 1] - b[offset + i + 1];
+            double d2 = a[i + 2] - b[offset + i + 2];
+            double d3 = a[i + 3] - b[offset + i + 3];
+            sum += d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        for (; i < dimension; i++) {
+            double d = a[i] - b[offset + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // Same as above against doubles stored in a buffer (e.g. a memory-mapped gallery record) in
+    // the buffer's byte order, starting at byte offset and read with absolute gets
+
+    public static double squaredDistance(double[] a, ByteBuffer b, int offset, int dimension, double bound) {
+        double sum = 0;
+        int i = 0;
+        for (int end = dimension - BLOCK; i <= end; i += BLOCK) {
+            int position = offset + i * Double.BYTES;
+            double d0 = a[i] - b.getDouble(position);
+            double d1 = a[i + 1] - b.getDouble(position + Double.BYTES);
+            double d2 = a[i + 2] - b.getDouble(position + 2 * Double.BYTES);
+            double d3 = a[i + 3] - b.getDouble(position + 3 * Double.BYTES);
+            sum += d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        for (; i < dimension; i++) {
+            double d = a[i] - b.getDouble(offset + i * Double.BYTES);
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // Squared Euclidean distance between two whole vectors
+
+    public static double squaredDistance(double[] a, double[] b) {
+        return squaredDistance(a, b, 0, a.length, Double.POSITIVE_INFINITY);
+    }
+}
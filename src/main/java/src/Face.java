@@ -30,10 +30,17 @@ public class Face {
     // Creating a new Face instance from a file
 
     public Face(File file) throws MalformedURLException {
+        this(file, false);
+    }
+
+    // Creating a new Face instance from a file, cropped to the detected face if asked to.
+    // The image is decoded once, unlike constructing it uncropped and calling load(true).
+
+    public Face(File file, boolean crop) throws MalformedURLException {
         this.classification = null;
         this.description = "";
         this.file = file;
-        load(false);
+        load(crop);
     }
 
     // Getting the file associated with this face
@@ -4,7 +4,9 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Insets;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -114,8 +116,8 @@ public class FaceBrowser extends JPanel {
      
     public void highlightClassifiedAs(String classification) {
         for (FaceItem item : faceItems) {
-            if (item.getFace().getClassification() != null &&
-                    item.getFace().getClassification().equals(classification)) {
+            if (item.getClassification() != null &&
+                    item.getClassification().equals(classification)) {
                 item.setBorder(BorderFactory.createLineBorder(Color.RED, 2));
             } else {
                 item.setBorder(BorderFactory.createRaisedBevelBorder());
@@ -124,12 +126,13 @@ public class FaceBrowser extends JPanel {
     }
 
     //Reordering face items based on their distances
-    //Removing and re-adding items in the order specified by the distance pairs
+    //Removing and re-adding items in the order specified by the distance pairs.
+    //Each item loads its image only when it is first painted.
      
     public void orderAs(FeatureSpace.FaceDistancePair[] faceDistances) {
         removeAll();
         for (FeatureSpace.FaceDistancePair pair : faceDistances) {
-            add(new FaceItem(pair.getFace()));
+            add(new FaceItem(pair));
         }
         revalidate();
         repaint();
@@ -159,6 +162,7 @@ class FaceItem extends JPanel {
 
     private static final long serialVersionUID = 1L;
     private Face face;
+    private FeatureSpace.FaceDistancePair pending;    // Gallery row whose image is not loaded yet
     private ImageIcon image;
     private JLabel imageLabel;
     private JLabel textLabel;
@@ -189,6 +193,30 @@ class FaceItem extends JPanel {
         }
     }
 
+    //Creating a FaceItem for a gallery row, showing its metadata until it is first painted
+
+    public FaceItem(FeatureSpace.FaceDistancePair pair) {
+        init();
+        pending = pair;
+        border.setTitle(new File(pair.getPath()).getName());
+        updateLabel();
+    }
+
+    //Loading the pending face image when the item first becomes visible
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (pending != null) {
+            FeatureSpace.FaceDistancePair pair = pending;
+            pending = null;
+            Face f = pair.getFace();
+            if (f != null) {
+                setFace(f);
+            }
+        }
+        super.paintComponent(g);
+    }
+
     //Setting the distance value for this face item
     //Updating the display to reflect the similarity to a reference face
     public void setDistance(double dist) {
@@ -208,17 +236,21 @@ class FaceItem extends JPanel {
     //Displaying classification, distance, description, and file path
     
     private void updateLabel() {
-        if (this.face == null) {
+        if (this.face == null && this.pending == null) {
             textLabel.setText(""); // Clear text if no face is set
             return;
         }
 
+        String classification = getClassification();
+        String description = face != null ? face.getDescription() : pending.getDescription();
+        String name = face != null ? face.getFile().getName() : new File(pending.getPath()).getName();
+
         String text = "<html>";
         text += "<font size=+1><font color=#7f7f7f>Classification:</font> ";
-        if (this.face.getClassification() == null) {
+        if (classification == null) {
             text += "<font color=#7f0000>[unclassified]</font>";
         } else {
-            text += "<font color=#00007f>" + this.face.getClassification() + "</font>";
+            text += "<font color=#00007f>" + classification + "</font>";
         }
         text += "</b></font>";
 
@@ -226,8 +258,8 @@ class FaceItem extends JPanel {
             text += ("<br><b>" + "Distance: " + String.format("%.2f", this.distance) + "</b>");
         }
 
-        text += "<br>" + this.face.getDescription() + "";
-        text += "<br><font size=-2 color=#7f7f7f>" + this.face.getFile().getName() + "</font>";
+        text += "<br>" + description + "";
+        text += "<br><font size=-2 color=#7f7f7f>" + name + "</font>";
         text += "</html>";
         textLabel.setText(text);
     }
@@ -311,4 +343,13 @@ class FaceItem extends JPanel {
     public Face getFace() {
         return face;
     }
+
+    //Getting the classification shown, whether or not the image has been loaded yet
+
+    public String getClassification() {
+        if (face != null) {
+            return face.getClassification();
+        }
+        return pending != null ? pending.getClassification() : null;
+    }
 }
\ No newline at end of file
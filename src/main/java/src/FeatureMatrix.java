@@ -0,0 +1,182 @@
+package src;
+
+import java.util.Arrays;
+
+// An immutable view of the first size() rows of a packed, append-only store.
+// Appending writes the new row past the end of every existing view and returns a
+// larger view, so a reader holding a FeatureMatrix never sees it change. Rows are
+// only ever appended by one thread at a time (see FeatureSpace).
+// A single-precision matrix stores its rows as floats, halving memory and scan bandwidth;
+// distances are still accumulated in double.
+
+public class FeatureMatrix {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Storage storage;   // Shared with every other view of the same rows
+    private final double[] data;     // Row-major feature vectors, one row per enrolled face (null if single precision)
+    private final float[] floats;    // Row-major feature vectors of a single-precision matrix, otherwise null
+    private final int[] classIds;    // Class id of each row, parallel to the rows of data
+    private final int dimension;     // Length of every row, fixed by the first vector added
+    private final int size;          // Number of rows visible through this view
+
+    // Creating an empty matrix
+
+    public FeatureMatrix() {
+        this(false);
+    }
+
+    // Creating an empty matrix that stores its rows in single precision if asked to
+
+    public FeatureMatrix(boolean singlePrecision) {
+        this(singlePrecision ? new Storage(new float[0], new int[0]) : new Storage(new double[0], new int[0]), 0, 0);
+    }
+
+    private FeatureMatrix(Storage storage, int dimension, int size) {
+        this.storage = storage;
+        this.data = storage.data;
+        this.floats = storage.floats;
+        this.classIds = storage.classIds;
+        this.dimension = dimension;
+        this.size = size;
+    }
+
+    // Backing arrays, and how many of their rows have been written by any view
+
+    private static class Storage {
+        final double[] data;
+        final float[] floats;
+        final int[] classIds;
+        int used;
+
+        Storage(double[] data, int[] classIds) {
+            this.data = data;
+            this.floats = null;
+            this.classIds = classIds;
+        }
+
+        Storage(float[] floats, int[] classIds) {
+            this.data = null;
+            this.floats = floats;
+            this.classIds = classIds;
+        }
+    }
+
+    // Returns a view with one more row. The arrays are shared while they have room and this
+    // view is the newest; otherwise the rows are copied into larger arrays first.
+
+    public FeatureMatrix append(double[] vector, int classId) {
+        int rowDimension = size == 0 ? vector.length : dimension;
+        if (vector.length != rowDimension) {
+            throw new IllegalArgumentException(
+                "Feature vector has " + vector.length + " dimensions, expected " + rowDimension);
+        }
+
+        Storage target = storage;
+        if (storage.used != size || classIds.length <= size || rowDimension != dimension) {
+            int capacity = Math.max(INITIAL_CAPACITY, classIds.length * 2);
+            int[] ids = Arrays.copyOf(classIds, capacity);
+            target = floats != null
+                ? new Storage(Arrays.copyOf(floats, capacity * rowDimension), ids)
+                : new Storage(Arrays.copyOf(data, capacity * rowDimension), ids);
+            target.used = size;
+        }
+
+        if (floats != null) {
+            int offset = size * rowDimension;
+            for (int i = 0; i < rowDimension; i++) {
+                target.floats[offset + i] = (float) vector[i];
+            }
+        } else {
+            System.arraycopy(vector, 0, target.data, size * rowDimension, rowDimension);
+        }
+        target.classIds[size] = classId;
+        target.used = size + 1;
+        return new FeatureMatrix(target, rowDimension, size + 1);
+    }
+
+    // Squared Euclidean distance between a probe vector and one row
+
+    public double squaredDistance(double[] probe, int row) {
+        return squaredDistance(probe, row, Double.POSITIVE_INFINITY);
+    }
+
+    // Squared Euclidean distance that gives up once it exceeds bound (see EuclideanKernel)
+
+    public double squaredDistance(double[] probe, int row, double bound) {
+        if (floats != null) {
+            return EuclideanKernel.squaredDistance(probe, floats, row * dimension, dimension, bound);
+        }
+        return EuclideanKernel.squaredDistance(probe, data, row * dimension, dimension, bound);
+    }
+
+    // Squared Euclidean distance between two rows
+
+    public double squaredDistance(int row1, int row2) {
+        double sum = 0;
+        int offset1 = row1 * dimension;
+        int offset2 = row2 * dimension;
+        for (int i = 0; i < dimension; i++) {
+            double diff = floats != null
+                ? (double) floats[offset1 + i] - floats[offset2 + i]
+                : data[offset1 + i] - data[offset2 + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    // Gets a single coefficient of a row
+
+    public double get(int row, int column) {
+        return floats != null ? floats[row * dimension + column] : data[row * dimension + column];
+    }
+
+    // Gets a copy of a row as a standalone array
+
+    public double[] getRow(int row) {
+        double[] vector = new double[dimension];
+        copyRow(row, vector);
+        return vector;
+    }
+
+    // Copies a row into a caller-supplied array
+
+    public void copyRow(int row, double[] out) {
+        if (floats != null) {
+            int offset = row * dimension;
+            for (int i = 0; i < dimension; i++) {
+                out[i] = floats[offset + i];
+            }
+        } else {
+            System.arraycopy(data, row * dimension, out, 0, dimension);
+        }
+    }
+
+    // Gets the backing row-major array. Only the first size() rows are meaningful.
+    // Null for a single-precision matrix; use getFloatData() instead.
+
+    public double[] getData() {
+        return data;
+    }
+
+    // Gets the backing row-major array of a single-precision matrix, otherwise null
+
+    public float[] getFloatData() {
+        return floats;
+    }
+
+    public boolean isSinglePrecision() {
+        return floats != null;
+    }
+
+    public int getClassId(int row) {
+        return classIds[row];
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+}
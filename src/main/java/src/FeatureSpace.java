@@ -1,94 +1,263 @@
 package src;
 
+import java.io.File;
+import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class FeatureSpace {
 
     //Euclidean distance measure implementation
+    //Ranking with this measure compares squared distances and only takes roots of reported results
      
     public static final DistanceMeasure EUCLIDEAN_DISTANCE = new DistanceMeasure() {
         @Override
         public double calculateDistance(FeatureVector fv1, FeatureVector fv2) {
-            double sum = 0;
-            for (int i = 0; i < fv1.getFeatureVector().length; i++) {
-                double diff = fv1.getFeatureVector()[i] - fv2.getFeatureVector()[i];
-                sum += diff * diff;
+            return Math.sqrt(EuclideanKernel.squaredDistance(fv1.getFeatureVector(), fv2.getFeatureVector()));
+        }
+
+        @Override
+        public double calculateDistance(FeatureVector probe, FeatureMatrix gallery, int row) {
+            return Math.sqrt(gallery.squaredDistance(probe.getFeatureVector(), row));
+        }
+
+        @Override
+        public void calculateDistances(FeatureVector probe, FeatureMatrix gallery, int from, int to, double[] out) {
+            double[] a = probe.getFeatureVector();
+            for (int row = from; row < to; row++) {
+                out[row - from] = Math.sqrt(gallery.squaredDistance(a, row));
             }
-            return Math.sqrt(sum);
         }
     };
 
-    private final ArrayList<FeatureVector> featureSpace;
-    private final ArrayList<String> classifications;
+    // Number of closest matches printed with each recognition
+
+    private static final int REPORTED_MATCHES = 3;
+
+    // Gallery size from which probes are scanned in parallel, and the rows each worker scans
+
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 20000;
+    private static final int PARALLEL_CHUNK_SIZE = 4096;
+
+    // Rows scored per batch call when scanning with a measure other than Euclidean
+
+    private static final int DISTANCE_BATCH_SIZE = 256;
+
+    // Default lower bound on the acceptance threshold, and the threshold used while no class
+    // has two faces yet. Both are in the units of eigenface coefficients.
+
+    private static final double DEFAULT_THRESHOLD_FLOOR = 1500.0;
+    private static final double DEFAULT_FALLBACK_THRESHOLD = 2500.0;
+
+    // The state probes read. Writers build the next snapshot while holding writeLock and
+    // publish it with one volatile write, so probes never lock and an enrollment (or a whole
+    // bulk enrollment) becomes visible all at once.
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final Object writeLock = new Object();
+
+    // Writer state, only touched while holding writeLock
+
+    private final boolean singlePrecision;      // Store feature vectors as floats
+    private FeatureMatrix featureSpace;         // Packed feature vectors and class ids
+    private String[] paths;                     // Image file of each row, parallel to the rows of featureSpace
+    private String[] descriptions;              // Description of each row, null if it has none
+    private String[] classifications;
+    private int classCount;
+    private final HashMap<String, Integer> classIndex;
+    private final ArrayList<ArrayList<Integer>> classMembers;
     
     // Statistics for dynamic thresholding
 
     private double minIntraClassDistance = Double.MAX_VALUE;
     private double maxIntraClassDistance = 0;
     private double avgIntraClassDistance = 0;
+    private double totalIntraClassDistance = 0;
+    private long intraClassPairCount = 0;
+
+    // Index answering Euclidean probes instead of a full scan, null to scan. Updated by the writer.
+
+    private volatile GalleryIndex galleryIndex;
+
+    // Parallel search configuration
+
+    private volatile ForkJoinPool searchPool = ForkJoinPool.commonPool();
+    private volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // Acceptance threshold configuration
+
+    private volatile double thresholdFloor = DEFAULT_THRESHOLD_FLOOR;
+    private volatile double fallbackThreshold = DEFAULT_FALLBACK_THRESHOLD;
 
     public FeatureSpace() {
-        featureSpace = new ArrayList<>();
-        classifications = new ArrayList<>();
+        this(false);
+    }
+
+    //Creating a feature space that stores its feature vectors in single precision if asked to
+
+    public FeatureSpace(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+        featureSpace = new FeatureMatrix(singlePrecision);
+        paths = new String[0];
+        descriptions = new String[0];
+        classifications = new String[0];
+        classIndex = new HashMap<>();
+        classMembers = new ArrayList<>();
     }
 
     //Inserting a face and its feature vector into the database
+    //Statistics are updated incrementally against the new face's own class only
      
     public void insertIntoDatabase(Face face, double[] featureVector) {
+        synchronized (writeLock) {
+            int index = addFeatureVector(face, featureVector);
+            if (index >= 0) {
+                updateDistanceStatistics(index);
+                publish();
+            }
+        }
+    }
+
+    //Inserting a batch of faces and their feature vectors into the database
+    //Statistics are deferred to a single pass once every face has been added
+
+    public void insertIntoDatabase(Face[] faces, double[][] featureVectors) {
+        if (faces.length != featureVectors.length) {
+            throw new IllegalArgumentException(
+                "Got " + faces.length + " faces but " + featureVectors.length + " feature vectors");
+        }
+
+        synchronized (writeLock) {
+            for (int i = 0; i < faces.length; i++) {
+                addFeatureVector(faces[i], featureVectors[i]);
+            }
+            recomputeDistanceStatistics();
+            publish();
+            printDistanceStatistics();
+        }
+    }
+
+    //Inserting a batch of feature vectors described only by their image paths and classifications,
+    //e.g. a gallery read back from a GalleryFile
+
+    public void insertIntoDatabase(String[] paths, String[] classifications, double[][] featureVectors) {
+        if (paths.length != featureVectors.length || classifications.length != featureVectors.length) {
+            throw new IllegalArgumentException(
+                "Got " + paths.length + " paths and " + classifications.length + " classifications but " +
+                featureVectors.length + " feature vectors");
+        }
+
+        synchronized (writeLock) {
+            for (int i = 0; i < paths.length; i++) {
+                addFeatureVector(paths[i], classifications[i], null, featureVectors[i]);
+            }
+            recomputeDistanceStatistics();
+            publish();
+            printDistanceStatistics();
+        }
+    }
+
+    // Adds the vector to the database and returns its index, or -1 if it was skipped.
+    // Only the face's file path, classification and description are kept, not its image.
+
+    private int addFeatureVector(Face face, double[] featureVector) {
         if (face.getClassification() == null) {
             System.out.println("WARNING: Skipping face with null classification: " + face.getFile().getName());
-            return;
+            return -1;
         }
+        return addFeatureVector(face.getFile().getPath(), face.getClassification(), face.getDescription(),
+                                featureVector);
+    }
 
-        if (!classifications.contains(face.getClassification())) {
-            classifications.add(face.getClassification());
+    private int addFeatureVector(String path, String classification, String description, double[] featureVector) {
+        Integer clas = classIndex.get(classification);
+        if (clas == null) {
+            clas = classCount;
+            if (classCount == classifications.length) {
+                classifications = Arrays.copyOf(classifications, Math.max(16, classCount * 2));
+            }
+            classifications[classCount++] = classification;
+            classIndex.put(classification, clas);
+            classMembers.add(new ArrayList<>());
         }
-        int clas = classifications.indexOf(face.getClassification());
 
-        FeatureVector obj = new FeatureVector();
-        obj.setClassification(clas);
-        obj.setFace(face);
-        obj.setFeatureVector(featureVector);
+        featureSpace = featureSpace.append(featureVector, clas);
+        int index = featureSpace.size() - 1;
+        GalleryIndex current = galleryIndex;
+        if (current != null) {
+            current.add(featureSpace, index);
+        }
+        if (index == paths.length) {
+            paths = Arrays.copyOf(paths, Math.max(64, index * 2));
+            descriptions = Arrays.copyOf(descriptions, paths.length);
+        }
+        paths[index] = path;
+        descriptions[index] = description;
+        classMembers.get(clas).add(index);
+        return index;
+    }
 
-        featureSpace.add(obj);
-        
-        // Update statistics after adding
+    // Makes everything written so far visible to probes
 
-        updateDistanceStatistics();
+    private void publish() {
+        snapshot = new Snapshot(featureSpace, paths, descriptions, classifications, classCount,
+                minIntraClassDistance, maxIntraClassDistance, avgIntraClassDistance);
     }
 
-    // Calculating intra-class distances to establish dynamic thresholds
+    // Folds the distances between a newly added vector and its class members into the statistics
      
-    private void updateDistanceStatistics() {
-        if (featureSpace.size() < 2) return;
-        
-        double totalDistance = 0;
-        int count = 0;
-        minIntraClassDistance = Double.MAX_VALUE;
-        maxIntraClassDistance = 0;
-        
-        // Calculating distances between faces of the SAME class
-
-        for (int i = 0; i < featureSpace.size(); i++) {
-            for (int j = i + 1; j < featureSpace.size(); j++) {
-                if (featureSpace.get(i).getClassification() == 
-                    featureSpace.get(j).getClassification()) {
-                    
-                    double dist = EUCLIDEAN_DISTANCE.calculateDistance(
-                        featureSpace.get(i), featureSpace.get(j));
-                    
-                    totalDistance += dist;
-                    count++;
-                    
-                    if (dist < minIntraClassDistance) minIntraClassDistance = dist;
-                    if (dist > maxIntraClassDistance) maxIntraClassDistance = dist;
+    private void updateDistanceStatistics(int index) {
+        for (int member : classMembers.get(featureSpace.getClassId(index))) {
+            if (member != index) {
+                addIntraClassDistance(Math.sqrt(featureSpace.squaredDistance(index, member)));
+            }
+        }
+        updateAverageDistance();
+    }
+
+    // Calculating intra-class distances from scratch, one class at a time
+
+    private void recomputeDistanceStatistics() {
+        resetDistanceStatistics();
+
+        for (ArrayList<Integer> members : classMembers) {
+            for (int i = 0; i < members.size(); i++) {
+                int row = members.get(i);
+                for (int j = i + 1; j < members.size(); j++) {
+                    addIntraClassDistance(Math.sqrt(featureSpace.squaredDistance(row, members.get(j))));
                 }
             }
         }
-        
-        if (count > 0) {
-            avgIntraClassDistance = totalDistance / count;
+        updateAverageDistance();
+    }
+
+    private void addIntraClassDistance(double dist) {
+        totalIntraClassDistance += dist;
+        intraClassPairCount++;
+
+        if (dist < minIntraClassDistance) minIntraClassDistance = dist;
+        if (dist > maxIntraClassDistance) maxIntraClassDistance = dist;
+    }
+
+    private void updateAverageDistance() {
+        if (intraClassPairCount > 0) {
+            avgIntraClassDistance = totalIntraClassDistance / intraClassPairCount;
+        }
+    }
+
+    private void resetDistanceStatistics() {
+        minIntraClassDistance = Double.MAX_VALUE;
+        maxIntraClassDistance = 0;
+        avgIntraClassDistance = 0;
+        totalIntraClassDistance = 0;
+        intraClassPairCount = 0;
+    }
+
+    private void printDistanceStatistics() {
+        if (intraClassPairCount > 0) {
             System.out.println("=== Distance Statistics ===");
             System.out.println("Min intra-class distance: " + minIntraClassDistance);
             System.out.println("Max intra-class distance: " + maxIntraClassDistance);
@@ -99,17 +268,35 @@ public class FeatureSpace {
     //k-nearest neighbor classification with dynamic thresholding
      
     public String knn(DistanceMeasure measure, FeatureVector fv, int k) {
-        FaceDistancePair[] distances = orderByDistance(measure, fv);
-        if (distances.length == 0) {
+        return knn(measure, fv, k, 0);
+    }
+
+    //Same as above, passing searchWidth to the gallery index (see GalleryIndex.search)
+    //to trade recall for latency; 0 uses the index's default
+
+    public String knn(DistanceMeasure measure, FeatureVector fv, int k, int searchWidth) {
+        Snapshot current = snapshot;
+        if (current.size() == 0) {
             return "Unknown";
         }
 
         // Adjust k if needed
 
-        if (k > distances.length) {
-            k = distances.length;
+        if (k > current.size()) {
+            k = current.size();
         }
 
+        NearestNeighbours nearest = nearestNeighbours(current, measure, fv, Math.max(k, REPORTED_MATCHES), searchWidth);
+
+        // An approximate index may return fewer rows than asked for; only real rows get a vote
+
+        if (nearest.size() == 0) {
+            return "Unknown";
+        }
+        k = Math.min(k, nearest.size());
+
+        double avgIntraClassDistance = current.getAvgIntraClassDistance();
+
         // CRITICAL FIX: Dynamic threshold based on training data statistics
 
         double distanceThreshold;
@@ -123,28 +310,28 @@ public class FeatureSpace {
             
             // Ensure minimum threshold
 
-            distanceThreshold = Math.max(distanceThreshold, 1500.0);
+            distanceThreshold = Math.max(distanceThreshold, thresholdFloor);
         } else {
 
             // Fallback for insufficient training data
 
-            distanceThreshold = 2500.0;
+            distanceThreshold = fallbackThreshold;
         }
 
-        double closestDistance = distances[0].getDist();
+        double closestDistance = nearest.getDistance(0);
         
         System.out.println("=== Recognition Analysis ===");
         System.out.println("Closest match distance: " + closestDistance);
         System.out.println("Threshold: " + distanceThreshold);
-        System.out.println("Classification: " + distances[0].getFace().getClassification());
+        System.out.println("Classification: " + current.getClassification(nearest.getIndex(0)));
         
         // Show top 3 matches for debugging
 
         System.out.println("Top 3 matches:");
-        for (int i = 0; i < Math.min(3, distances.length); i++) {
+        for (int i = 0; i < Math.min(REPORTED_MATCHES, nearest.size()); i++) {
             System.out.println("  " + (i+1) + ". " + 
-                distances[i].getFace().getClassification() + 
-                " - Distance: " + distances[i].getDist());
+                current.getClassification(nearest.getIndex(i)) + 
+                " - Distance: " + nearest.getDistance(i));
         }
 
         // STRICT THRESHOLD CHECK - Must pass to be recognized
@@ -160,8 +347,8 @@ public class FeatureSpace {
         java.util.HashMap<String, Double> voteDistances = new java.util.HashMap<>();
         
         for (int i = 0; i < k; i++) {
-            String classification = distances[i].getFace().getClassification();
-            double distance = distances[i].getDist();
+            String classification = current.getClassification(nearest.getIndex(i));
+            double distance = nearest.getDistance(i);
             
             voteCount.put(classification, voteCount.getOrDefault(classification, 0) + 1);
             
@@ -201,26 +388,179 @@ public class FeatureSpace {
         return bestClassification != null ? bestClassification : "Unknown";
     }
 
+    //Finds the k faces closest to a probe feature vector, closest first
+    //Only k candidates are held at a time, so no per-face objects are allocated
+
+    //Galleries of at least the parallel threshold are split across the search pool
+
+    public NearestNeighbours nearestNeighbours(DistanceMeasure measure, FeatureVector fv, int k) {
+        return nearestNeighbours(snapshot, measure, fv, k);
+    }
+
+    //Same as above against a snapshot, so that the returned rows can be resolved through it
+
+    public NearestNeighbours nearestNeighbours(Snapshot current, DistanceMeasure measure, FeatureVector fv, int k) {
+        return nearestNeighbours(current, measure, fv, k, 0);
+    }
+
+    //Same as above with a search width for the gallery index.
+    //Euclidean probes go through the index when one is set; every other measure scans.
+
+    public NearestNeighbours nearestNeighbours(Snapshot current, DistanceMeasure measure, FeatureVector fv, int k,
+            int searchWidth) {
+        FeatureMatrix vectors = current.getFeatureMatrix();
+        GalleryIndex index = galleryIndex;
+        ForkJoinPool pool = searchPool;
+        NearestNeighbours nearest;
+        if (index != null && measure == EUCLIDEAN_DISTANCE) {
+            nearest = new NearestNeighbours(k);
+            index.search(vectors, fv.getFeatureVector(), nearest, searchWidth);
+        } else if (vectors.size() >= parallelThreshold && pool.getParallelism() > 1) {
+            nearest = pool.invoke(new ParallelSearch(vectors, measure, fv, k, 0, vectors.size()));
+        } else {
+            nearest = scan(vectors, measure, fv, k, 0, vectors.size());
+        }
+        nearest.sort();
+        if (measure == EUCLIDEAN_DISTANCE) {
+            nearest.squareRootDistances();
+        }
+        return nearest;
+    }
+
+    // Scans a range of rows into a fresh, unsorted top-k collection.
+    // Euclidean scans rank on squared distances and abandon rows that cannot beat the k-th best.
+
+    private static NearestNeighbours scan(FeatureMatrix vectors, DistanceMeasure measure, FeatureVector fv,
+            int k, int from, int to) {
+        NearestNeighbours nearest = new NearestNeighbours(k);
+        if (measure == EUCLIDEAN_DISTANCE) {
+            double[] probe = fv.getFeatureVector();
+            for (int i = from; i < to; i++) {
+                nearest.offer(vectors.squaredDistance(probe, i, nearest.worstDistance()), i);
+            }
+        } else {
+            double[] batch = new double[Math.min(DISTANCE_BATCH_SIZE, Math.max(0, to - from))];
+            for (int start = from; start < to; start += batch.length) {
+                int end = Math.min(to, start + batch.length);
+                measure.calculateDistances(fv, vectors, start, end, batch);
+                for (int i = start; i < end; i++) {
+                    nearest.offer(batch[i - start], i);
+                }
+            }
+        }
+        return nearest;
+    }
+
+    // Splits a scan until each worker holds one chunk, then merges the workers' local top-k.
+    // The measure is shared between workers, so it must not keep per-call state.
+
+    private static class ParallelSearch extends RecursiveTask<NearestNeighbours> {
+        private static final long serialVersionUID = 1L;
+
+        private final FeatureMatrix vectors;
+        private final DistanceMeasure measure;
+        private final FeatureVector fv;
+        private final int k;
+        private final int from;
+        private final int to;
+
+        ParallelSearch(FeatureMatrix vectors, DistanceMeasure measure, FeatureVector fv, int k, int from, int to) {
+            this.vectors = vectors;
+            this.measure = measure;
+            this.fv = fv;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected NearestNeighbours compute() {
+            if (to - from <= PARALLEL_CHUNK_SIZE) {
+                return scan(vectors, measure, fv, k, from, to);
+            }
+
+            int middle = (from + to) >>> 1;
+            ParallelSearch left = new ParallelSearch(vectors, measure, fv, k, from, middle);
+            left.fork();
+            NearestNeighbours nearest = new ParallelSearch(vectors, measure, fv, k, middle, to).compute();
+            nearest.merge(left.join());
+            return nearest;
+        }
+    }
+
+    // Sets the index Euclidean probes use, building it over the faces enrolled so far.
+    // null goes back to scanning every row.
+
+    public void setIndex(GalleryIndex index) {
+        synchronized (writeLock) {
+            if (index != null) {
+                index.build(featureSpace);
+            }
+            galleryIndex = index;
+        }
+    }
+
+    public GalleryIndex getIndex() {
+        return galleryIndex;
+    }
+
+    // Sets the pool used for parallel probes
+
+    public void setSearchPool(ForkJoinPool searchPool) {
+        this.searchPool = searchPool;
+    }
+
+    // Sets the gallery size from which probes are scanned in parallel
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // Sets the lower bound on the acceptance threshold and the threshold used before the
+    // gallery has intra-class statistics. The defaults suit eigenface coefficients; vectors on
+    // another scale (e.g. Fisher vectors) need their own, or a floor of 0 to use the statistics alone.
+
+    public void setDistanceThresholds(double floor, double fallback) {
+        if (floor < 0 || fallback < 0) {
+            throw new IllegalArgumentException("Thresholds must not be negative");
+        }
+        this.thresholdFloor = floor;
+        this.fallbackThreshold = fallback;
+    }
+
     //Orders all faces by their distance to a probe feature vector
+    //Used by the face browser; classification should use nearestNeighbours instead
      
     public FaceDistancePair[] orderByDistance(DistanceMeasure measure, FeatureVector fv) {
-        FaceDistancePair[] distances = new FaceDistancePair[featureSpace.size()];
-        for (int i = 0; i < featureSpace.size(); i++) {
+        Snapshot current = snapshot;
+        FeatureMatrix vectors = current.getFeatureMatrix();
+        FaceDistancePair[] distances = new FaceDistancePair[vectors.size()];
+        for (int i = 0; i < vectors.size(); i++) {
             distances[i] = new FaceDistancePair();
-            distances[i].setFace(featureSpace.get(i).getFace());
-            distances[i].setDist(measure.calculateDistance(fv, featureSpace.get(i)));
+            distances[i].setRow(current, i);
+            distances[i].setDist(measure.calculateDistance(fv, vectors, i));
         }
         Arrays.sort(distances, (a, b) -> Double.compare(a.getDist(), b.getDist()));
         return distances;
     }
 
     //Inner class representing a face and its distance to a probe vector
+    //A pair made by orderByDistance refers to a gallery row and loads its image only when
+    //getFace() is first called, so ordering the gallery decodes no images
      
     public static class FaceDistancePair {
+        private Snapshot snapshot;
+        private int row = -1;
         private Face face;
         private double dist;
 
+        //Gets the face, loading and cropping its image on first use.
+        //Returns null if the image of a gallery row can no longer be read.
+
         public Face getFace() {
+            if (face == null && snapshot != null) {
+                face = snapshot.getFace(row);
+            }
             return face;
         }
 
@@ -228,6 +568,24 @@ public class FeatureSpace {
             this.face = face;
         }
 
+        public void setRow(Snapshot snapshot, int row) {
+            this.snapshot = snapshot;
+            this.row = row;
+            this.face = null;
+        }
+
+        public String getPath() {
+            return snapshot != null ? snapshot.getPath(row) : face.getFile().getPath();
+        }
+
+        public String getClassification() {
+            return snapshot != null ? snapshot.getClassification(row) : face.getClassification();
+        }
+
+        public String getDescription() {
+            return snapshot != null ? snapshot.getDescription(row) : face.getDescription();
+        }
+
         public double getDist() {
             return dist;
         }
@@ -238,17 +596,13 @@ public class FeatureSpace {
     }
 
     public double[][] get3dFeatureSpace() {
-        if (featureSpace.isEmpty()) {
+        FeatureMatrix vectors = snapshot.getFeatureMatrix();
+        if (vectors.size() == 0) {
             return new double[0][3];
         }
 
-        double[][] features = new double[featureSpace.size()][3];
-        for (int i = 0; i < featureSpace.size(); i++) {
-            double[] featureVector = featureSpace.get(i).getFeatureVector();
-            features[i][0] = featureVector.length > 0 ? featureVector[0] : 0;
-            features[i][1] = featureVector.length > 1 ? featureVector[1] : 0;
-            features[i][2] = featureVector.length > 2 ? featureVector[2] : 0;
-        }
+        double[][] features = new double[vectors.size()][3];
+        copy3dFeatures(vectors, features);
 
         return normalizeFeatures(features);
     }
@@ -258,23 +612,29 @@ public class FeatureSpace {
             return get3dFeatureSpace();
         }
 
-        double[][] features = new double[featureSpace.size() + 1][3];
-
-        for (int i = 0; i < featureSpace.size(); i++) {
-            double[] featureVector = featureSpace.get(i).getFeatureVector();
-            features[i][0] = featureVector.length > 0 ? featureVector[0] : 0;
-            features[i][1] = featureVector.length > 1 ? featureVector[1] : 0;
-            features[i][2] = featureVector.length > 2 ? featureVector[2] : 0;
-        }
+        FeatureMatrix vectors = snapshot.getFeatureMatrix();
+        double[][] features = new double[vectors.size() + 1][3];
+        copy3dFeatures(vectors, features);
 
         double[] probeVector = probe.getFeatureVector();
-        features[featureSpace.size()][0] = probeVector.length > 0 ? probeVector[0] : 0;
-        features[featureSpace.size()][1] = probeVector.length > 1 ? probeVector[1] : 0;
-        features[featureSpace.size()][2] = probeVector.length > 2 ? probeVector[2] : 0;
+        features[vectors.size()][0] = probeVector.length > 0 ? probeVector[0] : 0;
+        features[vectors.size()][1] = probeVector.length > 1 ? probeVector[1] : 0;
+        features[vectors.size()][2] = probeVector.length > 2 ? probeVector[2] : 0;
 
         return normalizeFeatures(features);
     }
 
+    // Copies the first three coefficients of every row, padding with zeros
+
+    private static void copy3dFeatures(FeatureMatrix vectors, double[][] features) {
+        int dimension = vectors.getDimension();
+        for (int i = 0; i < vectors.size(); i++) {
+            features[i][0] = dimension > 0 ? vectors.get(i, 0) : 0;
+            features[i][1] = dimension > 1 ? vectors.get(i, 1) : 0;
+            features[i][2] = dimension > 2 ? vectors.get(i, 2) : 0;
+        }
+    }
+
     private double[][] normalizeFeatures(double[][] features) {
         if (features.length == 0) return features;
 
@@ -303,26 +663,158 @@ public class FeatureSpace {
         return features;
     }
 
+    //Gets the current snapshot, for callers that need several reads to agree with each other
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public double[] getFeatureVector(int row) {
+        return snapshot.getFeatureMatrix().getRow(row);
+    }
+
+    public Face getFace(int row) {
+        return snapshot.getFace(row);
+    }
+
+    public String getClassification(int row) {
+        return snapshot.getClassification(row);
+    }
+
     public int getFeatureSpaceSize() {
-        return featureSpace.size();
+        return snapshot.size();
     }
 
     public void clear() {
-        featureSpace.clear();
-        classifications.clear();
-        minIntraClassDistance = Double.MAX_VALUE;
-        maxIntraClassDistance = 0;
-        avgIntraClassDistance = 0;
+        synchronized (writeLock) {
+            featureSpace = new FeatureMatrix(singlePrecision);
+            paths = new String[0];
+            descriptions = new String[0];
+            classifications = new String[0];
+            classCount = 0;
+            classIndex.clear();
+            classMembers.clear();
+            resetDistanceStatistics();
+            if (galleryIndex != null) {
+                galleryIndex.build(featureSpace);
+            }
+            snapshot = Snapshot.EMPTY;
+        }
     }
     
     //Get statistics for debugging
 
     public String getStatistics() {
+        Snapshot current = snapshot;
         return String.format(
             "Feature Space: %d faces, %d classes\n" +
             "Min Distance: %.2f, Max Distance: %.2f, Avg Distance: %.2f",
-            featureSpace.size(), classifications.size(),
-            minIntraClassDistance, maxIntraClassDistance, avgIntraClassDistance
+            current.size(), current.getClassCount(),
+            current.getMinIntraClassDistance(), current.getMaxIntraClassDistance(),
+            current.getAvgIntraClassDistance()
         );
     }
-}
\ No newline at end of file
+
+    //Immutable view of the feature space at one point in time.
+    //The arrays are shared with later snapshots, which only ever write past this snapshot's end.
+
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new FeatureMatrix(), new String[0], new String[0], new String[0], 0,
+                Double.MAX_VALUE, 0, 0);
+
+        private final FeatureMatrix vectors;
+        private final String[] paths;
+        private final String[] descriptions;
+        private final String[] classifications;
+        private final int classCount;
+        private final double minIntraClassDistance;
+        private final double maxIntraClassDistance;
+        private final double avgIntraClassDistance;
+
+        Snapshot(FeatureMatrix vectors, String[] paths, String[] descriptions, String[] classifications,
+                 int classCount, double minIntraClassDistance, double maxIntraClassDistance,
+                 double avgIntraClassDistance) {
+            this.vectors = vectors;
+            this.paths = paths;
+            this.descriptions = descriptions;
+            this.classifications = classifications;
+            this.classCount = classCount;
+            this.minIntraClassDistance = minIntraClassDistance;
+            this.maxIntraClassDistance = maxIntraClassDistance;
+            this.avgIntraClassDistance = avgIntraClassDistance;
+        }
+
+        public FeatureMatrix getFeatureMatrix() {
+            return vectors;
+        }
+
+        public int size() {
+            return vectors.size();
+        }
+
+        //Loads the face of a row from its image file, or returns null if the file is gone
+        //(e.g. moved since a saved gallery was written). The gallery keeps no images, so each
+        //call reads and crops the file again; callers showing many faces should keep the result.
+
+        public Face getFace(int row) {
+            checkRow(row);
+            File file = new File(paths[row]);
+            if (!file.isFile()) {
+                System.out.println("WARNING: Face image no longer available: " + paths[row]);
+                return null;
+            }
+            try {
+                Face face = new Face(file, true);
+                face.setClassification(getClassification(row));
+                face.setDescription(getDescription(row));
+                return face;
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException("Cannot load face image " + paths[row], e);
+            }
+        }
+
+        public String getPath(int row) {
+            checkRow(row);
+            return paths[row];
+        }
+
+        public String getDescription(int row) {
+            checkRow(row);
+            return descriptions[row] != null ? descriptions[row] : "";
+        }
+
+        public String getClassification(int row) {
+            checkRow(row);
+            return classifications[vectors.getClassId(row)];
+        }
+
+        public int getClassCount() {
+            return classCount;
+        }
+
+        public String getClassName(int classId) {
+            if (classId < 0 || classId >= classCount) {
+                throw new IndexOutOfBoundsException("Class " + classId + " of " + classCount);
+            }
+            return classifications[classId];
+        }
+
+        public double getMinIntraClassDistance() {
+            return minIntraClassDistance;
+        }
+
+        public double getMaxIntraClassDistance() {
+            return maxIntraClassDistance;
+        }
+
+        public double getAvgIntraClassDistance() {
+            return avgIntraClassDistance;
+        }
+
+        private void checkRow(int row) {
+            if (row < 0 || row >= vectors.size()) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + vectors.size());
+            }
+        }
+    }
+}
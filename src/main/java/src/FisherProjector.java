@@ -0,0 +1,174 @@
+package src;
+
+import java.util.Arrays;
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+// Linear discriminant analysis on eigenface coefficients (Fisherfaces). Trained on the
+// labelled vectors of a feature space, it maps each eigenface vector onto at most C - 1
+// axes (C classes) that maximise between-class over within-class scatter, so identities
+// separate in fewer dimensions than PCA alone needs.
+
+public class FisherProjector {
+    // Added to the within-class scatter, relative to its average eigenvalue, to keep it invertible
+    private static final double REGULARIZATION = 1e-6;
+
+    private double[] mean;       // Mean of the training vectors, inputDimension values
+    private double[] axes;       // Fisher axes, inputDimension × dimension, row-major
+    private int inputDimension;  // Leading eigenface coefficients used, at most N - C
+    private int dimension;       // Length of a Fisher vector, at most C - 1
+
+    // Trains on every vector of a feature space, labelled by its classification
+
+    public void train(FeatureSpace featureSpace) {
+        train(featureSpace.getSnapshot());
+    }
+
+    public void train(FeatureSpace.Snapshot snapshot) {
+        FeatureMatrix vectors = snapshot.getFeatureMatrix();
+        int count = vectors.size();
+        int classCount = snapshot.getClassCount();
+        if (classCount < 2) {
+            throw new IllegalStateException("At least two classes are needed, got " + classCount);
+        }
+
+        // With more coefficients than N - C the within-class scatter would be singular
+        int d = Math.min(vectors.getDimension(), count - classCount);
+        if (d <= 0) {
+            throw new IllegalStateException(
+                "Not enough faces for " + classCount + " classes: got " + count + ", need more than " + classCount);
+        }
+
+        double[] total = new double[d];
+        double[][] classMeans = new double[classCount][d];
+        int[] classSizes = new int[classCount];
+        for (int row = 0; row < count; row++) {
+            int c = vectors.getClassId(row);
+            classSizes[c]++;
+            for (int i = 0; i < d; i++) {
+                double value = vectors.get(row, i);
+                total[i] += value;
+                classMeans[c][i] += value;
+            }
+        }
+        for (int i = 0; i < d; i++) {
+            total[i] /= count;
+        }
+        for (int c = 0; c < classCount; c++) {
+            for (int i = 0; i < d; i++) {
+                classMeans[c][i] /= Math.max(1, classSizes[c]);
+            }
+        }
+
+        // Within-class and between-class scatter
+        Matrix within = new Matrix(d, d);
+        Matrix between = new Matrix(d, d);
+        double[] diff = new double[d];
+        for (int row = 0; row < count; row++) {
+            double[] classMean = classMeans[vectors.getClassId(row)];
+            for (int i = 0; i < d; i++) {
+                diff[i] = vectors.get(row, i) - classMean[i];
+            }
+            addOuter(within, diff, 1);
+        }
+        int populated = 0;
+        for (int c = 0; c < classCount; c++) {
+            if (classSizes[c] == 0) {
+                continue;
+            }
+            populated++;
+            for (int i = 0; i < d; i++) {
+                diff[i] = classMeans[c][i] - total[i];
+            }
+            addOuter(between, diff, classSizes[c]);
+        }
+
+        // Whiten the within-class scatter, W = V D^-1/2, then diagonalise W^T Sb W
+        EigenvalueDecomposition withinEigen = within.eig();
+        double[] withinValues = withinEigen.getRealEigenvalues();
+        double ridge = REGULARIZATION * Math.max(within.trace() / d, Double.MIN_NORMAL);
+        Matrix whitening = withinEigen.getV().copy();
+        for (int j = 0; j < d; j++) {
+            double scale = 1.0 / Math.sqrt(Math.max(withinValues[j], 0) + ridge);
+            for (int i = 0; i < d; i++) {
+                whitening.set(i, j, whitening.get(i, j) * scale);
+            }
+        }
+        Matrix projected = whitening.transpose().times(between).times(whitening);
+        projected = projected.plus(projected.transpose()).times(0.5);
+        EigenvalueDecomposition betweenEigen = projected.eig();
+        double[] values = betweenEigen.getRealEigenvalues();
+
+        Integer[] order = new Integer[d];
+        for (int i = 0; i < d; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+
+        int k = Math.min(populated - 1, d);
+        Matrix fisher = whitening.times(betweenEigen.getV());
+        double[] flat = new double[d * k];
+        for (int i = 0; i < d; i++) {
+            for (int j = 0; j < k; j++) {
+                flat[i * k + j] = fisher.get(i, order[j]);
+            }
+        }
+
+        this.mean = total;
+        this.axes = flat;
+        this.inputDimension = d;
+        this.dimension = k;
+        System.out.println("Fisher projection trained: " + d + " eigenface coefficients -> " + k +
+                           " discriminants over " + populated + " classes");
+    }
+
+    // Projects one eigenface vector onto the Fisher axes
+
+    public double[] project(double[] eigenFaceVector) {
+        if (axes == null) {
+            throw new IllegalStateException("Fisher projection not trained yet");
+        }
+        if (eigenFaceVector.length < inputDimension) {
+            throw new IllegalArgumentException(
+                "Vector has " + eigenFaceVector.length + " coefficients, expected at least " + inputDimension);
+        }
+        double[] out = new double[dimension];
+        for (int i = 0, row = 0; i < inputDimension; i++, row += dimension) {
+            double value = eigenFaceVector[i] - mean[i];
+            for (int j = 0; j < dimension; j++) {
+                out[j] += value * axes[row + j];
+            }
+        }
+        return out;
+    }
+
+    // Projects many eigenface vectors, one per row
+
+    public double[][] project(double[][] eigenFaceVectors) {
+        double[][] out = new double[eigenFaceVectors.length][];
+        for (int i = 0; i < eigenFaceVectors.length; i++) {
+            out[i] = project(eigenFaceVectors[i]);
+        }
+        return out;
+    }
+
+    public boolean isTrained() {
+        return axes != null;
+    }
+
+    // Gets the length of the Fisher vectors
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    private static void addOuter(Matrix target, double[] v, double weight) {
+        double[][] t = target.getArray();
+        for (int i = 0; i < v.length; i++) {
+            double vi = v[i] * weight;
+            for (int j = 0; j < v.length; j++) {
+                t[i][j] += vi * v[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package src;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// On-disk gallery of enrolled feature vectors, scanned in place through memory maps.
+//
+// Main file (little-endian):
+//   Header (48 bytes)
+//     int  magic           "GALY"
+//     int  version
+//     int  dimension
+//     int  count
+//     int  stride          bytes per vector record
+//     int  labelCount
+//     long labelOffset     start of the label dictionary
+//     long pathOffset      start of the path index
+//     long modelChecksum   ModelFile checksum of the model the vectors were projected with
+//   Vector records, count x stride bytes
+//     int  classId         index into the label dictionary
+//     int  reserved
+//     double[dimension]
+//   Label dictionary, labelCount x (int length, UTF-8 bytes)
+//   Path index, count x long file offsets, then count x (int length, UTF-8 bytes)
+//
+// Tail file (<name>.tail), appended to by append() until the next compact():
+//   repeated (int dimension, int length, UTF-8 label, int length, UTF-8 path, double[dimension])
+
+public class GalleryFile implements Closeable {
+    private static final int MAGIC = 0x594c4147;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final File tailFile;
+
+    private int dimension;
+    private int stride;
+    private int count;                      // Records in the main file
+    private int recordsPerSegment;
+    private MappedByteBuffer[] segments;    // Record region, split so that each map stays under 2 GB
+    private MappedByteBuffer tables;        // Label dictionary and path index
+    private long pathOffset;
+    private long modelChecksum;
+
+    private final ArrayList<String> labels = new ArrayList<>();
+    private final HashMap<String, Integer> labelIndex = new HashMap<>();
+
+    // Records appended since the last compaction, held on the heap
+    private FeatureMatrix tailVectors = new FeatureMatrix();
+    private final ArrayList<String> tailPaths = new ArrayList<>();
+
+    private GalleryFile(File file) {
+        this.file = file;
+        this.tailFile = new File(file.getPath() + ".tail");
+    }
+
+    // Writes every face in a feature space to a new gallery file, discarding any old tail segment.
+    // The file is written next to the target and renamed over it, as compact() does.
+    // modelChecksum is the checksum ModelFile returned for the model the vectors came from.
+
+    public static void write(FeatureSpace featureSpace, File file, long modelChecksum) throws IOException {
+        FeatureSpace.Snapshot snapshot = featureSpace.getSnapshot();
+        FeatureMatrix vectors = snapshot.getFeatureMatrix();
+        File written = new File(file.getPath() + ".compact");
+        writeMain(written, vectors.getDimension(), vectors.size(), modelChecksum, new RowSource() {
+            @Override
+            public String classification(int row) {
+                return snapshot.getClassification(row);
+            }
+
+            @Override
+            public String path(int row) {
+                return snapshot.getPath(row);
+            }
+
+            @Override
+            public void copyRow(int row, double[] out) {
+                vectors.copyRow(row, out);
+            }
+        });
+        Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(new File(file.getPath() + ".tail").toPath());
+    }
+
+    // Opens a gallery file, mapping its main records read-only and loading any appended tail records
+
+    public static GalleryFile open(File file) throws IOException {
+        GalleryFile gallery = new GalleryFile(file);
+        gallery.mapMain();
+        gallery.readTail();
+        return gallery;
+    }
+
+    // Finds the k rows closest to a probe, closest first, with Euclidean distances
+
+    public NearestNeighbours nearestNeighbours(double[] probe, int k) {
+        if (probe.length != dimension) {
+            throw new IllegalArgumentException(
+                "Probe has " + probe.length + " dimensions, expected " + dimension);
+        }
+
+        NearestNeighbours nearest = new NearestNeighbours(k);
+        for (int s = 0; s < segments.length; s++) {
+            MappedByteBuffer segment = segments[s];
+            int first = s * recordsPerSegment;
+            int records = Math.min(recordsPerSegment, count - first);
+            for (int r = 0; r < records; r++) {
+                nearest.offer(EuclideanKernel.squaredDistance(probe, segment, r * stride + RECORD_HEADER_SIZE,
+                        dimension, nearest.worstDistance()), first + r);
+            }
+        }
+        for (int r = 0; r < tailVectors.size(); r++) {
+            nearest.offer(tailVectors.squaredDistance(probe, r, nearest.worstDistance()), count + r);
+        }
+
+        nearest.sort();
+        nearest.squareRootDistances();
+        return nearest;
+    }
+
+    // Appends a record to the tail segment; it is searchable immediately and merged by compact()
+
+    public void append(String classification, String path, double[] vector) throws IOException {
+        if (size() == 0 && dimension == 0) {
+            dimension = vector.length;
+        }
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException(
+                "Feature vector has " + vector.length + " dimensions, expected " + dimension);
+        }
+
+        byte[] label = classification.getBytes(StandardCharsets.UTF_8);
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(3 * Integer.BYTES + label.length + pathBytes.length
+                + dimension * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(dimension).putInt(label.length).put(label).putInt(pathBytes.length).put(pathBytes);
+        for (double value : vector) {
+            record.putDouble(value);
+        }
+        record.flip();
+
+        try (FileChannel channel = FileChannel.open(tailFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        addTailRecord(classification, path, vector);
+    }
+
+    // Merges the tail segment into a rewritten main file and remaps it
+
+    public void compact() throws IOException {
+        if (tailVectors.size() == 0) {
+            return;
+        }
+
+        File compacted = new File(file.getPath() + ".compact");
+        writeMain(compacted, dimension, size(), modelChecksum, new RowSource() {
+            @Override
+            public String classification(int row) {
+                return getClassification(row);
+            }
+
+            @Override
+            public String path(int row) {
+                return getPath(row);
+            }
+
+            @Override
+            public void copyRow(int row, double[] out) {
+                GalleryFile.this.copyRow(row, out);
+            }
+        });
+
+        close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(tailFile.toPath());
+        mapMain();
+    }
+
+    // Copies the feature vector of a row, from the mapped records or the tail
+
+    public void copyRow(int row, double[] out) {
+        if (row < count) {
+            int s = row / recordsPerSegment;
+            int position = (row % recordsPerSegment) * stride + RECORD_HEADER_SIZE;
+            for (int i = 0; i < dimension; i++, position += Double.BYTES) {
+                out[i] = segments[s].getDouble(position);
+            }
+        } else {
+            tailVectors.copyRow(row - count, out);
+        }
+    }
+
+    public double[] getRow(int row) {
+        double[] vector = new double[dimension];
+        copyRow(row, vector);
+        return vector;
+    }
+
+    public String getClassification(int row) {
+        if (row < count) {
+            int s = row / recordsPerSegment;
+            return labels.get(segments[s].getInt((row % recordsPerSegment) * stride));
+        }
+        return labels.get(tailVectors.getClassId(row - count));
+    }
+
+    public String getPath(int row) {
+        if (row < count) {
+            int position = (int) (tables.getLong((int) (pathOffset + (long) row * Long.BYTES)) - tablesStart());
+            return readString(tables, position);
+        }
+        return tailPaths.get(row - count);
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    // Checksum of the model the vectors were projected with, as written by write()
+
+    public long getModelChecksum() {
+        return modelChecksum;
+    }
+
+    public int size() {
+        return count + tailVectors.size();
+    }
+
+    // Drops the mapped buffers and the in-memory tail; they are unmapped once garbage collected
+
+    @Override
+    public void close() {
+        segments = new MappedByteBuffer[0];
+        tables = null;
+        count = 0;
+        labels.clear();
+        labelIndex.clear();
+        tailVectors = new FeatureMatrix();
+        tailPaths.clear();
+    }
+
+    private void mapMain() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a gallery file: " + file.getName());
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Truncated gallery header: " + file.getName());
+                }
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a gallery file: " + file.getName());
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported gallery file version " + version + ", expected " + VERSION);
+            }
+            dimension = header.getInt();
+            count = header.getInt();
+            stride = header.getInt();
+            int labelCount = header.getInt();
+            long labelOffset = header.getLong();
+            pathOffset = header.getLong() - labelOffset;
+            modelChecksum = header.getLong();
+
+            if (stride != RECORD_HEADER_SIZE + dimension * Double.BYTES
+                    || labelOffset != HEADER_SIZE + (long) count * stride) {
+                throw new IOException("Corrupt gallery header: " + file.getName());
+            }
+
+            recordsPerSegment = Math.max(1, Integer.MAX_VALUE / stride);
+            int segmentCount = (count + recordsPerSegment - 1) / recordsPerSegment;
+            segments = new MappedByteBuffer[segmentCount];
+            for (int s = 0; s < segmentCount; s++) {
+                long start = HEADER_SIZE + (long) s * recordsPerSegment * stride;
+                long length = (long) Math.min(recordsPerSegment, count - s * recordsPerSegment) * stride;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                segments[s].order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            long tablesLength = channel.size() - labelOffset;
+            if (tablesLength > Integer.MAX_VALUE) {
+                throw new IOException("Gallery path table is too large to map: " + file.getName());
+            }
+            tables = channel.map(FileChannel.MapMode.READ_ONLY, labelOffset, tablesLength);
+            tables.order(ByteOrder.LITTLE_ENDIAN);
+
+            labels.clear();
+            labelIndex.clear();
+            int position = 0;
+            for (int i = 0; i < labelCount; i++) {
+                String label = readString(tables, position);
+                position += Integer.BYTES + tables.getInt(position);
+                labelIndex.put(label, labels.size());
+                labels.add(label);
+            }
+        }
+    }
+
+    // Offset of the mapped label and path tables within the file
+
+    private long tablesStart() {
+        return HEADER_SIZE + (long) count * stride;
+    }
+
+    private void readTail() throws IOException {
+        if (!tailFile.exists()) {
+            return;
+        }
+
+        ByteBuffer tail = ByteBuffer.wrap(Files.readAllBytes(tailFile.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        while (tail.hasRemaining()) {
+            requireTail(tail, Integer.BYTES);
+            int recordDimension = tail.getInt();
+            if (size() == 0 && dimension == 0) {
+                dimension = recordDimension;
+            } else if (recordDimension != dimension) {
+                throw new IOException("Gallery tail record has " + recordDimension +
+                    " dimensions, expected " + dimension + ": " + tailFile.getName());
+            }
+            String label = readTailString(tail);
+            String path = readTailString(tail);
+            requireTail(tail, (long) dimension * Double.BYTES);
+            double[] vector = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = tail.getDouble();
+            }
+            addTailRecord(label, path, vector);
+        }
+    }
+
+    // A record cut short, e.g. by a crash during append(), fails the whole tail rather than
+    // surfacing as a BufferUnderflowException
+
+    private void requireTail(ByteBuffer tail, long bytes) throws IOException {
+        if (bytes < 0 || tail.remaining() < bytes) {
+            throw new IOException("Truncated gallery tail record at byte " + tail.position() + ": " +
+                tailFile.getName());
+        }
+    }
+
+    private String readTailString(ByteBuffer tail) throws IOException {
+        requireTail(tail, Integer.BYTES);
+        requireTail(tail, Integer.BYTES + (long) tail.getInt(tail.position()));
+        return readString(tail);
+    }
+
+    private void addTailRecord(String classification, String path, double[] vector) {
+        Integer classId = labelIndex.get(classification);
+        if (classId == null) {
+            classId = labels.size();
+            labels.add(classification);
+            labelIndex.put(classification, classId);
+        }
+        tailVectors = tailVectors.append(vector, classId);
+        tailPaths.add(path);
+    }
+
+    private static String readString(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + Integer.BYTES + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Rows to be written to a main file
+
+    private interface RowSource {
+        String classification(int row);
+
+        String path(int row);
+
+        void copyRow(int row, double[] out);
+    }
+
+    private static void writeMain(File file, int dimension, int count, long modelChecksum, RowSource rows)
+            throws IOException {
+        int stride = RECORD_HEADER_SIZE + dimension * Double.BYTES;
+        ArrayList<String> labels = new ArrayList<>();
+        HashMap<String, Integer> labelIndex = new HashMap<>();
+        double[] vector = new double[dimension];
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter out = new ChannelWriter(channel, HEADER_SIZE);
+
+            for (int row = 0; row < count; row++) {
+                String label = rows.classification(row);
+                Integer classId = labelIndex.get(label);
+                if (classId == null) {
+                    classId = labels.size();
+                    labels.add(label);
+                    labelIndex.put(label, classId);
+                }
+                rows.copyRow(row, vector);
+
+                out.putInt(classId);
+                out.putInt(0);
+                for (double value : vector) {
+                    out.putDouble(value);
+                }
+            }
+
+            long labelOffset = out.position();
+            for (String label : labels) {
+                out.putString(label);
+            }
+
+            long pathOffset = out.position();
+            long pathPosition = pathOffset + (long) count * Long.BYTES;
+            byte[][] paths = new byte[count][];
+            for (int row = 0; row < count; row++) {
+                paths[row] = rows.path(row).getBytes(StandardCharsets.UTF_8);
+                out.putLong(pathPosition);
+                pathPosition += Integer.BYTES + paths[row].length;
+            }
+            for (byte[] path : paths) {
+                out.putInt(path.length);
+                out.put(path);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                  .putInt(VERSION)
+                  .putInt(dimension)
+                  .putInt(count)
+                  .putInt(stride)
+                  .putInt(labels.size())
+                  .putLong(labelOffset)
+                  .putLong(pathOffset)
+                  .putLong(modelChecksum);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    // Buffered little-endian writer over a file channel
+
+    private static class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        ChannelWriter(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(Double.BYTES);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            put(bytes);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            for (int offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        long position() {
+            return position + buffer.position();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+    }
+}
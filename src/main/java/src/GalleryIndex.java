@@ -0,0 +1,25 @@
+package src;
+
+// A search structure over the rows of a FeatureMatrix that answers Euclidean nearest
+// neighbour queries without scanning every row (see FeatureSpace.setIndex). Rows are
+// added in order as faces are enrolled. Searches run concurrently with add and build,
+// so implementations guard their own state, and a search only reports rows below
+// vectors.size(), i.e. rows of the snapshot it was given. LockedGalleryIndex supplies
+// the locking and the exact scan of rows an index has not caught up with yet.
+
+public interface GalleryIndex {
+
+    // Rebuilds the index over every row of vectors
+
+    void build(FeatureMatrix vectors);
+
+    // Indexes a newly appended row; rows arrive in increasing order
+
+    void add(FeatureMatrix vectors, int row);
+
+    // Offers the rows closest to the probe to nearest, with exact squared Euclidean distances.
+    // searchWidth trades recall for speed in approximate indexes, in each index's own unit;
+    // 0 selects the index's default.
+
+    void search(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth);
+}
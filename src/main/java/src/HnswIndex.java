@@ -0,0 +1,401 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Hierarchical navigable small-world graph index. Every row is a node on layer 0 and, with
+// geometrically falling probability, on layers above it. A probe descends greedily from
+// the entry point through the sparse upper layers, then runs a best-first search of width
+// efSearch on layer 0. Rows are inserted one at a time as they are enrolled, linked to
+// up to M diverse close neighbours per layer (2M on layer 0).
+//
+// Each node's adjacency is one int[]: a block of [count, 2M ids] for layer 0, followed by
+// a block of [count, M ids] for every layer above it.
+
+public class HnswIndex extends LockedGalleryIndex {
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    private static final long SEED = 42L;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelScale;
+    private final ThreadLocal<Visited> visitedSets = ThreadLocal.withInitial(Visited::new);
+
+    // Guarded by lock
+
+    private Random random = new Random(SEED);
+    private int[][] links = new int[0][];
+    private int[] levels = new int[0];
+    private int[] formerEntry = new int[0];   // Entry point before this node replaced it, -1 otherwise
+    private int count;                        // Rows [0, count) are in the graph
+    private int entryPoint = -1;
+    private int dimension;
+
+    public HnswIndex() {
+        this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+    }
+
+    public HnswIndex(int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be at least 2, got " + m);
+        }
+        if (efConstruction <= 0 || efSearch <= 0) {
+            throw new IllegalArgumentException("efConstruction and efSearch must be positive");
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelScale = 1.0 / Math.log(m);
+    }
+
+    @Override
+    public void build(FeatureMatrix vectors) {
+        lock.writeLock().lock();
+        try {
+            random = new Random(SEED);
+            links = new int[vectors.size()][];
+            levels = new int[vectors.size()];
+            formerEntry = new int[vectors.size()];
+            count = 0;
+            entryPoint = -1;
+            dimension = vectors.getDimension();
+            for (int row = 0; row < vectors.size(); row++) {
+                insert(vectors, row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(FeatureMatrix vectors, int row) {
+        if (count > 0 && vectors.getDimension() != dimension) {
+            build(vectors);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            dimension = vectors.getDimension();
+            insert(vectors, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // searchWidth is efSearch, the width of the layer-0 search; 0 uses the default given at
+    // construction. It is never narrower than the number of results asked for.
+
+    @Override
+    protected int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth,
+                                int size) {
+        int indexed = Math.min(count, size);
+        if (indexed > 0) {
+            // The current entry point may have been added after this snapshot
+            int ep = entryPoint;
+            while (ep >= indexed) {
+                ep = formerEntry[ep];
+            }
+            Entry entry = new Entry(ep, vectors.squaredDistance(probe, ep));
+            for (int level = levels[ep]; level > 0; level--) {
+                greedy(vectors, probe, entry, level, indexed);
+            }
+            int ef = Math.max(searchWidth > 0 ? searchWidth : efSearch, nearest.capacity());
+            NearestNeighbours found = searchLayer(vectors, probe, entry, ef, 0, indexed);
+            for (int i = 0; i < found.size(); i++) {
+                nearest.offer(found.getDistance(i), found.getIndex(i));
+            }
+        }
+        return indexed;
+    }
+
+    // A node and its squared distance to the query, moved by the greedy descent
+
+    private static class Entry {
+        int node;
+        double distance;
+
+        Entry(int node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+
+    private void insert(FeatureMatrix vectors, int node) {
+        if (node >= links.length) {
+            int capacity = Math.max(64, node * 2);
+            links = Arrays.copyOf(links, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            formerEntry = Arrays.copyOf(formerEntry, capacity);
+        }
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelScale);
+        links[node] = new int[maxM0 + 1 + level * (m + 1)];
+        levels[node] = level;
+        formerEntry[node] = -1;
+        count = node + 1;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            return;
+        }
+
+        double[] query = vectors.getRow(node);
+        int top = levels[entryPoint];
+        Entry entry = new Entry(entryPoint, vectors.squaredDistance(query, entryPoint));
+        for (int l = top; l > level; l--) {
+            greedy(vectors, query, entry, l, node);
+        }
+
+        for (int l = Math.min(top, level); l >= 0; l--) {
+            NearestNeighbours found = searchLayer(vectors, query, entry, efConstruction, l, node);
+            found.sort();
+            int[] ids = new int[found.size()];
+            double[] distances = new double[found.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = found.getIndex(i);
+                distances[i] = found.getDistance(i);
+            }
+
+            int[] selected = selectNeighbours(vectors, ids, distances, ids.length, m);
+            int offset = blockOffset(l);
+            links[node][offset] = selected.length;
+            System.arraycopy(selected, 0, links[node], offset + 1, selected.length);
+            for (int neighbour : selected) {
+                link(vectors, neighbour, node, l);
+            }
+            entry.node = ids[0];
+            entry.distance = distances[0];
+        }
+
+        if (level > top) {
+            formerEntry[node] = entryPoint;
+            entryPoint = node;
+        }
+    }
+
+    // Adds node to the neighbour's links on a layer, re-selecting them if the block is full
+
+    private void link(FeatureMatrix vectors, int neighbour, int node, int level) {
+        int[] block = links[neighbour];
+        int offset = blockOffset(level);
+        int size = block[offset];
+        int max = level == 0 ? maxM0 : m;
+        if (size < max) {
+            block[offset + 1 + size] = node;
+            block[offset] = size + 1;
+            return;
+        }
+
+        int[] ids = new int[size + 1];
+        double[] distances = new double[size + 1];
+        for (int i = 0; i < size; i++) {
+            ids[i] = block[offset + 1 + i];
+        }
+        ids[size] = node;
+        for (int i = 0; i <= size; i++) {
+            distances[i] = vectors.squaredDistance(neighbour, ids[i]);
+        }
+        sortByDistance(ids, distances);
+
+        int[] selected = selectNeighbours(vectors, ids, distances, ids.length, max);
+        block[offset] = selected.length;
+        System.arraycopy(selected, 0, block, offset + 1, selected.length);
+    }
+
+    // Picks up to max neighbours from candidates sorted closest first, preferring ones closer
+    // to the query than to any neighbour already picked, then topping up with the closest rest
+
+    private static int[] selectNeighbours(FeatureMatrix vectors, int[] ids, double[] distances, int n, int max) {
+        int[] selected = new int[Math.min(max, n)];
+        int chosen = 0;
+        boolean[] taken = new boolean[n];
+        for (int i = 0; i < n && chosen < selected.length; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < chosen; j++) {
+                if (vectors.squaredDistance(ids[i], selected[j]) < distances[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[chosen++] = ids[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < n && chosen < selected.length; i++) {
+            if (!taken[i]) {
+                selected[chosen++] = ids[i];
+            }
+        }
+        return selected;
+    }
+
+    // Moves the entry to its closest neighbour on a layer until none is closer
+
+    private void greedy(FeatureMatrix vectors, double[] query, Entry entry, int level, int limit) {
+        int offset = blockOffset(level);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] block = links[entry.node];
+            for (int i = 1, end = block[offset]; i <= end; i++) {
+                int candidate = block[offset + i];
+                if (candidate >= limit) {
+                    continue;
+                }
+                double distance = vectors.squaredDistance(query, candidate, entry.distance);
+                if (distance < entry.distance) {
+                    entry.node = candidate;
+                    entry.distance = distance;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Best-first search of one layer from the entry, keeping the ef closest nodes below limit
+
+    private NearestNeighbours searchLayer(FeatureMatrix vectors, double[] query, Entry entry, int ef, int level,
+            int limit) {
+        Visited visited = visitedSets.get();
+        visited.reset(limit);
+        NearestNeighbours results = new NearestNeighbours(ef);
+        CandidateQueue candidates = new CandidateQueue();
+        results.offer(entry.distance, entry.node);
+        candidates.push(entry.distance, entry.node);
+        visited.mark(entry.node);
+
+        int offset = blockOffset(level);
+        while (!candidates.isEmpty()) {
+            if (candidates.peekDistance() > results.worstDistance()) {
+                break;
+            }
+            int current = candidates.pop();
+            int[] block = links[current];
+            for (int i = 1, end = block[offset]; i <= end; i++) {
+                int neighbour = block[offset + i];
+                if (neighbour >= limit || !visited.mark(neighbour)) {
+                    continue;
+                }
+                double worst = results.worstDistance();
+                double distance = vectors.squaredDistance(query, neighbour, worst);
+                if (distance < worst) {
+                    results.offer(distance, neighbour);
+                    candidates.push(distance, neighbour);
+                }
+            }
+        }
+        return results;
+    }
+
+    private int blockOffset(int level) {
+        return level == 0 ? 0 : maxM0 + 1 + (level - 1) * (m + 1);
+    }
+
+    private static void sortByDistance(int[] ids, double[] distances) {
+        for (int i = 1; i < ids.length; i++) {
+            int id = ids[i];
+            double distance = distances[i];
+            int j = i - 1;
+            while (j >= 0 && (distances[j] > distance || (distances[j] == distance && ids[j] > id))) {
+                ids[j + 1] = ids[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            distances[j + 1] = distance;
+        }
+    }
+
+    // Min-heap of (distance, node) pairs, closest at the root
+
+    private static class CandidateQueue {
+        private double[] distances = new double[64];
+        private int[] nodes = new int[64];
+        private int size;
+
+        void push(double distance, int node) {
+            if (size == nodes.length) {
+                distances = Arrays.copyOf(distances, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                distances[i] = distances[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            distances[i] = distance;
+            nodes[i] = node;
+        }
+
+        double peekDistance() {
+            return distances[0];
+        }
+
+        int pop() {
+            int top = nodes[0];
+            double distance = distances[--size];
+            int node = nodes[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distance <= distances[child]) {
+                    break;
+                }
+                distances[i] = distances[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            distances[i] = distance;
+            nodes[i] = node;
+            return top;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    // Per-thread visited marks, cleared in O(1) by moving to a new epoch
+
+    private static class Visited {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        // Marks a node, returning false if it was already marked in this epoch
+        boolean mark(int node) {
+            if (marks[node] == epoch) {
+                return false;
+            }
+            marks[node] = epoch;
+            return true;
+        }
+    }
+}
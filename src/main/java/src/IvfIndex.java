@@ -0,0 +1,249 @@
+package src;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Inverted-file index. The rows are clustered with k-means into coarse lists; a probe
+// ranks the list centroids and scans only the rows of its nprobe closest lists, with
+// exact distances. New rows join the list of their closest centroid. When the gallery
+// has doubled since the lists were trained, or one list has grown far past the average,
+// the lists are retrained on a background thread from an immutable view of the gallery
+// and swapped in, so enrollment never waits for k-means.
+
+public class IvfIndex extends LockedGalleryIndex {
+    public static final int DEFAULT_PROBES = 8;
+
+    private static final int TRAINING_ITERATIONS = 15;
+    private static final int MAX_TRAINING_ROWS = 65536;
+    private static final int IMBALANCE_FACTOR = 4;    // Largest list allowed, in multiples of the average
+    private static final long SEED = 42L;
+
+    private final int requestedLists;   // 0 to use about sqrt(rows) lists
+    private final int defaultProbes;
+    private ExecutorService rebalancer;
+
+    // Guarded by lock
+
+    private int dimension;
+    private double[][] centroids;       // null until trained
+    private int[][] postings;           // Rows of each list, the first postingSizes[list] entries
+    private int[] postingSizes;
+    private int assigned;               // Rows [0, assigned) are in a list; later rows are scanned exactly
+    private int trainedRows;
+    private FeatureMatrix latest;       // Newest view seen by the writer, for rows added during a rebalance
+    private int generation;             // Bumped by build, so a stale rebalance is discarded
+    private boolean rebalancing;
+
+    public IvfIndex() {
+        this(0, DEFAULT_PROBES);
+    }
+
+    public IvfIndex(int lists, int probes) {
+        if (lists < 0) {
+            throw new IllegalArgumentException("List count must not be negative, got " + lists);
+        }
+        if (probes <= 0) {
+            throw new IllegalArgumentException("Probe count must be positive, got " + probes);
+        }
+        this.requestedLists = lists;
+        this.defaultProbes = probes;
+    }
+
+    @Override
+    public void build(FeatureMatrix vectors) {
+        lock.writeLock().lock();
+        try {
+            generation++;
+            latest = vectors;
+            centroids = null;
+            assigned = 0;
+            trainedRows = 0;
+            if (vectors.size() == 0) {
+                return;
+            }
+            Lists lists = train(vectors);
+            install(lists, vectors.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(FeatureMatrix vectors, int row) {
+        boolean rebalance;
+        int current;
+        lock.writeLock().lock();
+        try {
+            latest = vectors;
+            if (centroids == null || vectors.getDimension() != dimension) {
+                rebalance = false;
+                current = -1;
+            } else {
+                assign(vectors, row);
+                rebalance = !rebalancing && needsRebalance();
+                rebalancing |= rebalance;
+                current = generation;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (current < 0) {
+            build(vectors);
+        } else if (rebalance) {
+            final FeatureMatrix view = vectors;
+            final int expected = current;
+            rebalancer().execute(() -> rebalance(view, expected));
+        }
+    }
+
+    // searchWidth is the number of lists probed, nprobe; 0 uses the default given at construction
+
+    @Override
+    protected int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth,
+                                int size) {
+        int indexed = centroids == null ? 0 : Math.min(assigned, size);
+        if (indexed > 0) {
+            int probes = Math.min(searchWidth > 0 ? searchWidth : defaultProbes, centroids.length);
+            NearestNeighbours closestLists = new NearestNeighbours(probes);
+            for (int list = 0; list < centroids.length; list++) {
+                closestLists.offer(EuclideanKernel.squaredDistance(probe, centroids[list]), list);
+            }
+            for (int i = 0; i < closestLists.size(); i++) {
+                int list = closestLists.getIndex(i);
+                int[] rows = postings[list];
+                for (int j = 0, end = postingSizes[list]; j < end; j++) {
+                    int row = rows[j];
+                    if (row < size) {
+                        nearest.offer(vectors.squaredDistance(probe, row, nearest.worstDistance()), row);
+                    }
+                }
+            }
+        }
+        return indexed;
+    }
+
+    // Gets the number of coarse lists, 0 before the first build
+
+    public int getListCount() {
+        lock.readLock().lock();
+        try {
+            return centroids == null ? 0 : centroids.length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Centroids and posting lists trained outside the lock
+
+    private static class Lists {
+        final double[][] centroids;
+        final int[][] postings;
+        final int[] sizes;
+
+        Lists(double[][] centroids, int[][] postings, int[] sizes) {
+            this.centroids = centroids;
+            this.postings = postings;
+            this.sizes = sizes;
+        }
+    }
+
+    private Lists train(FeatureMatrix vectors) {
+        int size = vectors.size();
+        int listCount = requestedLists > 0 ? requestedLists : (int) Math.max(1, Math.round(Math.sqrt(size)));
+        int sampleSize = Math.min(size, MAX_TRAINING_ROWS);
+        double[][] sample = new double[sampleSize][];
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = vectors.getRow((int) ((long) i * size / sampleSize));
+        }
+        double[][] trained = KMeans.cluster(sample, listCount, TRAINING_ITERATIONS, SEED);
+
+        int[] sizes = new int[trained.length];
+        int[] lists = new int[size];
+        double[] row = new double[vectors.getDimension()];
+        for (int r = 0; r < size; r++) {
+            vectors.copyRow(r, row);
+            lists[r] = KMeans.nearest(trained, row);
+            sizes[lists[r]]++;
+        }
+        int[][] postings = new int[trained.length][];
+        for (int list = 0; list < trained.length; list++) {
+            postings[list] = new int[Math.max(4, sizes[list])];
+        }
+        Arrays.fill(sizes, 0);
+        for (int r = 0; r < size; r++) {
+            postings[lists[r]][sizes[lists[r]]++] = r;
+        }
+        System.out.println("IVF index trained: " + size + " rows in " + trained.length + " lists");
+        return new Lists(trained, postings, sizes);
+    }
+
+    // Swaps in trained lists covering rows [0, rows); the caller holds the write lock
+
+    private void install(Lists lists, int rows) {
+        dimension = latest.getDimension();
+        centroids = lists.centroids;
+        postings = lists.postings;
+        postingSizes = lists.sizes;
+        assigned = rows;
+        trainedRows = rows;
+    }
+
+    // Retrains from an immutable view, then catches up with rows added in the meantime.
+    // The rebalancing flag is cleared even if training fails, so a later add can schedule another.
+
+    private void rebalance(FeatureMatrix view, int expected) {
+        Lists lists = null;
+        try {
+            lists = train(view);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (lists != null && generation == expected && latest.getDimension() == view.getDimension()) {
+                    int added = assigned;
+                    install(lists, view.size());
+                    for (int row = view.size(); row < added; row++) {
+                        assign(latest, row);
+                    }
+                }
+                rebalancing = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void assign(FeatureMatrix vectors, int row) {
+        int list = KMeans.nearest(centroids, vectors.getRow(row));
+        if (postingSizes[list] == postings[list].length) {
+            postings[list] = Arrays.copyOf(postings[list], postings[list].length * 2);
+        }
+        postings[list][postingSizes[list]++] = row;
+        assigned = row + 1;
+    }
+
+    private boolean needsRebalance() {
+        if (assigned >= 2 * trainedRows) {
+            return true;
+        }
+        int largest = 0;
+        for (int size : postingSizes) {
+            largest = Math.max(largest, size);
+        }
+        // Only after some growth, so that a naturally skewed gallery does not retrain on every add
+        return centroids.length > 1 && assigned >= trainedRows + trainedRows / 4
+            && largest > IMBALANCE_FACTOR * assigned / centroids.length;
+    }
+
+    private synchronized ExecutorService rebalancer() {
+        if (rebalancer == null) {
+            rebalancer = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "ivf-rebalance");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return rebalancer;
+    }
+}
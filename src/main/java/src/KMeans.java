@@ -0,0 +1,120 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Lloyd's k-means with k-means++ seeding, used to train the codebooks and coarse
+// centroids of the gallery indexes. Deterministic for a given seed.
+
+public final class KMeans {
+
+    private KMeans() {
+    }
+
+    // Clusters the points into at most k centroids (fewer if there are fewer points)
+
+    public static double[][] cluster(double[][] points, int k, int iterations, long seed) {
+        int n = points.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("Cannot cluster an empty set of points");
+        }
+        k = Math.min(k, n);
+        int dimension = points[0].length;
+        Random random = new Random(seed);
+
+        // k-means++: each further seed is drawn with probability proportional to its squared
+        // distance from the seeds chosen so far
+        double[][] centroids = new double[k][];
+        centroids[0] = points[random.nextInt(n)].clone();
+        double[] closest = new double[n];
+        for (int i = 0; i < n; i++) {
+            closest[i] = EuclideanKernel.squaredDistance(points[i], centroids[0]);
+        }
+        for (int c = 1; c < k; c++) {
+            double total = 0;
+            for (double d : closest) {
+                total += d;
+            }
+            int chosen = random.nextInt(n);
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                for (int i = 0; i < n; i++) {
+                    target -= closest[i];
+                    if (target <= 0) {
+                        chosen = i;
+                        break;
+                    }
+                }
+            }
+            centroids[c] = points[chosen].clone();
+            for (int i = 0; i < n; i++) {
+                closest[i] = Math.min(closest[i], EuclideanKernel.squaredDistance(points[i], centroids[c]));
+            }
+        }
+
+        int[] assignment = new int[n];
+        double[][] sums = new double[k][dimension];
+        int[] counts = new int[k];
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            boolean changed = iteration == 0;
+            for (int i = 0; i < n; i++) {
+                int c = nearest(centroids, points[i]);
+                if (c != assignment[i]) {
+                    assignment[i] = c;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+
+            for (int c = 0; c < k; c++) {
+                Arrays.fill(sums[c], 0);
+                counts[c] = 0;
+            }
+            for (int i = 0; i < n; i++) {
+                double[] sum = sums[assignment[i]];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += points[i][d];
+                }
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // Reseed an empty cluster on the point furthest from its centroid
+                    int furthest = 0;
+                    double worst = -1;
+                    for (int i = 0; i < n; i++) {
+                        double d = EuclideanKernel.squaredDistance(points[i], centroids[assignment[i]]);
+                        if (d > worst) {
+                            worst = d;
+                            furthest = i;
+                        }
+                    }
+                    centroids[c] = points[furthest].clone();
+                    assignment[furthest] = c;
+                    continue;
+                }
+                for (int d = 0; d < dimension; d++) {
+                    centroids[c][d] = sums[c][d] / counts[c];
+                }
+            }
+        }
+        return centroids;
+    }
+
+    // Gets the index of the centroid closest to a point
+
+    public static int nearest(double[][] centroids, double[] point) {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < centroids.length; c++) {
+            double d = EuclideanKernel.squaredDistance(point, centroids[c], 0, point.length, bestDistance);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,280 @@
+package src;
+
+import java.util.Arrays;
+
+// Exact k-d tree index. Internal nodes split their rows at the median of the dimension
+// with the widest spread; every node keeps the bounding box of the rows below it. A
+// search visits the nearer child first and skips a subtree only when the squared distance
+// from the probe to its box is above the current k-th distance, so the results, ties
+// included, are the same as a full scan. It prunes well in the low-dimensional eigenface
+// spaces (10 components by default) and degrades to a scan in high dimensions.
+//
+// New rows descend to a leaf, widening the boxes on the way, and a leaf that grows past
+// twice the leaf size is split. The tree is rebuilt once the gallery has doubled.
+
+public class KdTreeIndex extends LockedGalleryIndex {
+    public static final int DEFAULT_LEAF_SIZE = 32;
+
+    // Box bounds are summed in a different order than the distance kernel, so they are
+    // shrunk by this relative margin before pruning to stay below every exact distance
+    private static final double BOUND_MARGIN = 1e-9;
+
+    private final int leafSize;
+
+    // Guarded by lock
+
+    private int dimension;
+    private int root = -1;
+    private int nodeCount;
+    private int[] splitDimensions = new int[0];   // -1 for leaves
+    private double[] splitValues = new double[0];
+    private int[] children = new int[0];          // Left child at 2n, right child at 2n + 1
+    private double[] lower = new double[0];       // Bounding box of node n at [n * dimension, (n + 1) * dimension)
+    private double[] upper = new double[0];
+    private int[][] buckets = new int[0][];       // Rows of each leaf, the first bucketSizes[n] entries
+    private int[] bucketSizes = new int[0];
+    private int inserted;                         // Rows [0, inserted) are in the tree; later rows are scanned exactly
+    private int builtRows;
+
+    public KdTreeIndex() {
+        this(DEFAULT_LEAF_SIZE);
+    }
+
+    public KdTreeIndex(int leafSize) {
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("Leaf size must be positive, got " + leafSize);
+        }
+        this.leafSize = leafSize;
+    }
+
+    @Override
+    public void build(FeatureMatrix vectors) {
+        lock.writeLock().lock();
+        try {
+            int size = vectors.size();
+            dimension = vectors.getDimension();
+            nodeCount = 0;
+            root = -1;
+            inserted = 0;
+            builtRows = size;
+            if (size == 0) {
+                return;
+            }
+            int[] rows = new int[size];
+            for (int row = 0; row < size; row++) {
+                rows[row] = row;
+            }
+            root = buildNode(vectors, rows, 0, size, new double[size]);
+            inserted = size;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(FeatureMatrix vectors, int row) {
+        if (root < 0 || vectors.getDimension() != dimension || vectors.size() >= 2 * builtRows) {
+            build(vectors);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            insert(vectors, row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // The search is exact, so searchWidth is ignored
+
+    @Override
+    protected int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth,
+                                int size) {
+        int indexed = root < 0 ? 0 : Math.min(inserted, size);
+        if (indexed > 0) {
+            search(vectors, probe, nearest, root, size);
+        }
+        return indexed;
+    }
+
+    private void search(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int node, int size) {
+        if (splitDimensions[node] < 0) {
+            int[] bucket = buckets[node];
+            for (int i = 0, end = bucketSizes[node]; i < end; i++) {
+                int row = bucket[i];
+                if (row < size) {
+                    nearest.offer(vectors.squaredDistance(probe, row, nearest.worstDistance()), row);
+                }
+            }
+            return;
+        }
+
+        int near = children[2 * node];
+        int far = children[2 * node + 1];
+        if (probe[splitDimensions[node]] >= splitValues[node]) {
+            int swap = near;
+            near = far;
+            far = swap;
+        }
+        if (boxDistance(probe, near, nearest.worstDistance()) * (1 - BOUND_MARGIN) <= nearest.worstDistance()) {
+            search(vectors, probe, nearest, near, size);
+        }
+        if (boxDistance(probe, far, nearest.worstDistance()) * (1 - BOUND_MARGIN) <= nearest.worstDistance()) {
+            search(vectors, probe, nearest, far, size);
+        }
+    }
+
+    // Squared distance from the probe to a node's bounding box, abandoned past bound
+
+    private double boxDistance(double[] probe, int node, double bound) {
+        double sum = 0;
+        int offset = node * dimension;
+        for (int d = 0; d < dimension && sum <= bound; d++) {
+            double gap = 0;
+            if (probe[d] < lower[offset + d]) {
+                gap = lower[offset + d] - probe[d];
+            } else if (probe[d] > upper[offset + d]) {
+                gap = probe[d] - upper[offset + d];
+            }
+            sum += gap * gap;
+        }
+        return sum;
+    }
+
+    // Builds the subtree over rows[from, to), reordering them, and returns its node
+
+    private int buildNode(FeatureMatrix vectors, int[] rows, int from, int to, double[] keys) {
+        int node = newNode();
+        fillNode(vectors, node, rows, from, to, keys);
+        return node;
+    }
+
+    // Makes node the root of a subtree over rows[from, to), as a leaf or split in two
+
+    private void fillNode(FeatureMatrix vectors, int node, int[] rows, int from, int to, double[] keys) {
+        int offset = node * dimension;
+        Arrays.fill(lower, offset, offset + dimension, Double.POSITIVE_INFINITY);
+        Arrays.fill(upper, offset, offset + dimension, Double.NEGATIVE_INFINITY);
+        for (int i = from; i < to; i++) {
+            widen(vectors, node, rows[i]);
+        }
+
+        int widest = 0;
+        for (int d = 1; d < dimension; d++) {
+            if (upper[offset + d] - lower[offset + d] > upper[offset + widest] - lower[offset + widest]) {
+                widest = d;
+            }
+        }
+        if (to - from <= leafSize || upper[offset + widest] == lower[offset + widest]) {
+            int count = to - from;
+            int[] bucket = new int[Math.max(2 * leafSize + 1, count)];
+            System.arraycopy(rows, from, bucket, 0, count);
+            buckets[node] = bucket;
+            bucketSizes[node] = count;
+            splitDimensions[node] = -1;
+            return;
+        }
+
+        for (int i = from; i < to; i++) {
+            keys[i] = vectors.get(rows[i], widest);
+        }
+        int middle = (from + to) >>> 1;
+        select(rows, keys, from, to - 1, middle);
+        splitDimensions[node] = widest;
+        splitValues[node] = keys[middle];
+        buckets[node] = null;
+        bucketSizes[node] = 0;
+        int left = buildNode(vectors, rows, from, middle, keys);
+        int right = buildNode(vectors, rows, middle, to, keys);
+        children[2 * node] = left;
+        children[2 * node + 1] = right;
+    }
+
+    private void insert(FeatureMatrix vectors, int row) {
+        int node = root;
+        while (splitDimensions[node] >= 0) {
+            widen(vectors, node, row);
+            node = vectors.get(row, splitDimensions[node]) < splitValues[node]
+                ? children[2 * node] : children[2 * node + 1];
+        }
+        widen(vectors, node, row);
+
+        int size = bucketSizes[node];
+        if (size == buckets[node].length) {
+            buckets[node] = Arrays.copyOf(buckets[node], size * 2 + 1);
+        }
+        buckets[node][size] = row;
+        bucketSizes[node] = size + 1;
+        inserted = row + 1;
+
+        // Split a leaf once its bucket fills up, turning the leaf itself into the root of a
+        // subtree over its rows. Leaves of identical rows cannot split and double instead.
+        if (size + 1 == buckets[node].length) {
+            int[] rows = Arrays.copyOf(buckets[node], size + 1);
+            fillNode(vectors, node, rows, 0, rows.length, new double[rows.length]);
+        }
+    }
+
+    private void widen(FeatureMatrix vectors, int node, int row) {
+        int offset = node * dimension;
+        for (int d = 0; d < dimension; d++) {
+            double value = vectors.get(row, d);
+            if (value < lower[offset + d]) {
+                lower[offset + d] = value;
+            }
+            if (value > upper[offset + d]) {
+                upper[offset + d] = value;
+            }
+        }
+    }
+
+    private int newNode() {
+        if (nodeCount == splitDimensions.length) {
+            int capacity = Math.max(64, nodeCount * 2);
+            splitDimensions = Arrays.copyOf(splitDimensions, capacity);
+            splitValues = Arrays.copyOf(splitValues, capacity);
+            children = Arrays.copyOf(children, 2 * capacity);
+            lower = Arrays.copyOf(lower, capacity * dimension);
+            upper = Arrays.copyOf(upper, capacity * dimension);
+            buckets = Arrays.copyOf(buckets, capacity);
+            bucketSizes = Arrays.copyOf(bucketSizes, capacity);
+        }
+        return nodeCount++;
+    }
+
+    // Reorders rows[from..to] (with their keys) so that position k holds the k-th smallest
+    // key, with smaller or equal keys before it and larger or equal keys after it
+
+    private static void select(int[] rows, double[] keys, int from, int to, int k) {
+        while (from < to) {
+            double pivot = keys[(from + to) >>> 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double key = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = key;
+                    int row = rows[i];
+                    rows[i] = rows[j];
+                    rows[j] = row;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                to = j;
+            } else if (k >= i) {
+                from = i;
+            } else {
+                return;
+            }
+        }
+    }
+}
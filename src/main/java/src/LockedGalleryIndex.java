@@ -0,0 +1,35 @@
+package src;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Common part of the gallery indexes. Each index guards its state with lock, covers the
+// rows enrolled before its last add or build, and leaves any later rows of the snapshot
+// (appended while it was catching up) to be scanned exactly here, after the read lock
+// is released, so every row of the snapshot is considered exactly once.
+
+public abstract class LockedGalleryIndex implements GalleryIndex {
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public final void search(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth) {
+        int size = vectors.size();
+        int covered;
+        lock.readLock().lock();
+        try {
+            covered = Math.min(searchIndexed(vectors, probe, nearest, searchWidth, size), size);
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int row = covered; row < size; row++) {
+            nearest.offer(vectors.squaredDistance(probe, row, nearest.worstDistance()), row);
+        }
+    }
+
+    // Offers the indexed rows below size closest to the probe to nearest and returns how
+    // many leading rows the index covers; called with the read lock held
+
+    protected abstract int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest,
+                                         int searchWidth, int size);
+}
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import javax.swing.*;
@@ -16,8 +17,16 @@ public class Main extends JPanel implements ActionListener {
     private static final int FACE_BROWSER_WIDTH = 400;
     private static final int FACE_BROWSER_HEIGHT = 300;
     private static final int PROGRESS_TIMER_DELAY = 100;
+    private static final boolean SINGLE_PRECISION = false;  // Float pixels, eigenfaces and feature vectors
+    private static final double RETAINED_VARIANCE = 0;      // Variance fraction the eigenfaces must keep, 0 to keep all
+    private static final boolean USE_FISHER = false;        // Match on Fisherface (PCA + LDA) vectors
+    private static final File MODEL_FILE = new File("eigenfaces.model");  // Trained model kept between sessions
+    private static final File GALLERY_FILE = new File("gallery.dat");     // Enrolled eigenface vectors of that model
+    private static final long NO_MODEL_CHECKSUM = -1;                       // CRC32 values are never negative
 
     private TSCD eigenFaces;
+    private FisherProjector fisher;
+    private long modelChecksum = NO_MODEL_CHECKSUM;    // Checksum of the model as it is on disk
     private FeatureSpace featureSpace;
     private JPanel main;
     private JProgressBar statusBar;
@@ -42,11 +51,119 @@ public class Main extends JPanel implements ActionListener {
 
     public Main() {
         eigenFaces = new TSCD();
-        featureSpace = new FeatureSpace();
+        eigenFaces.setSinglePrecision(SINGLE_PRECISION);
+        eigenFaces.setRetainedVariance(RETAINED_VARIANCE);
+        featureSpace = createFeatureSpace();
         faceBrowser = new FaceBrowser();
         trainingSet = new ArrayList<>();
         faces = new ArrayList<>();
         initializeUI();
+        restoreModel();
+        restoreGallery();
+    }
+
+    //Loads the model saved by the last training, if there is one, so that probes work
+    //without retraining from images
+
+    private void restoreModel() {
+        if (!MODEL_FILE.isFile()) {
+            return;
+        }
+        try {
+            modelChecksum = ModelFile.read(MODEL_FILE, eigenFaces);
+            probeButton.setEnabled(true);
+            updateStatus("✅ Restored trained model: " + eigenFaces.getNumEigenVectors() + " eigenfaces");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not restore model from " + MODEL_FILE + ": " + e.getMessage());
+        }
+    }
+
+    //Loads the gallery enrolled with the restored model. The gallery holds eigenface vectors,
+    //so Fisher mode retrains its projection from them just as training does.
+    //A gallery written for another model was projected with a different basis and is ignored.
+    //The rows are copied into the feature space, whose indexes, distance thresholds and
+    //Fisher training all work on the heap matrix; the mapped file is only read once here.
+
+    private void restoreGallery() {
+        if (!eigenFaces.isTrained() || modelChecksum == NO_MODEL_CHECKSUM || !GALLERY_FILE.isFile()) {
+            return;
+        }
+        try (GalleryFile gallery = GalleryFile.open(GALLERY_FILE)) {
+            if (gallery.getModelChecksum() != modelChecksum) {
+                System.err.println("Ignoring " + GALLERY_FILE + ": it was enrolled with a different model");
+                return;
+            }
+            int expected = Math.min(NUM_EIGEN_VECTORS, eigenFaces.getNumEigenVectors());
+            if (gallery.getDimension() != expected) {
+                System.err.println("Ignoring " + GALLERY_FILE + ": vectors have " + gallery.getDimension() +
+                        " dimensions, expected " + expected);
+                return;
+            }
+
+            int count = gallery.size();
+            String[] paths = new String[count];
+            String[] classifications = new String[count];
+            double[][] vectors = new double[count][];
+            for (int i = 0; i < count; i++) {
+                paths[i] = gallery.getPath(i);
+                classifications[i] = gallery.getClassification(i);
+                vectors[i] = gallery.getRow(i);
+            }
+            featureSpace.insertIntoDatabase(paths, classifications, vectors);
+
+            if (USE_FISHER) {
+                fisher = new FisherProjector();
+                fisher.train(featureSpace);
+                featureSpace.clear();
+                featureSpace.insertIntoDatabase(paths, classifications, fisher.project(vectors));
+            }
+            updateStatus("✅ Restored trained model and " + count + " enrolled faces");
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not restore gallery from " + GALLERY_FILE + ": " + e.getMessage());
+            featureSpace.clear();
+        }
+    }
+
+    //Saves the enrolled eigenface vectors next to the model; a failure only costs a retrain later.
+    //Without a saved model the gallery could not be matched to one, so it is not saved either.
+
+    private void saveGallery() {
+        if (modelChecksum == NO_MODEL_CHECKSUM) {
+            System.err.println("Not saving gallery to " + GALLERY_FILE + ": the model was not saved");
+            return;
+        }
+        try {
+            GalleryFile.write(featureSpace, GALLERY_FILE, modelChecksum);
+            System.out.println("Gallery saved to " + GALLERY_FILE.getAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Could not save gallery to " + GALLERY_FILE + ": " + e.getMessage());
+        }
+    }
+
+    //Saves the trained model for the next session; a failure only costs a retrain later
+
+    private void saveModel() {
+        modelChecksum = NO_MODEL_CHECKSUM;
+        try {
+            modelChecksum = ModelFile.write(eigenFaces, MODEL_FILE,
+                    SINGLE_PRECISION ? ModelFile.PRECISION_FLOAT32 : ModelFile.PRECISION_FLOAT64);
+            System.out.println("Model saved to " + MODEL_FILE.getAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Could not save model to " + MODEL_FILE + ": " + e.getMessage());
+        }
+    }
+
+    //Creates an empty feature space for the configured vectors.
+    //Fisher vectors are on a much smaller scale than eigenface coefficients (intra-class
+    //distances below 1 on the sample set), so the eigenface threshold floor would accept
+    //every probe; their threshold comes from the gallery statistics alone.
+
+    private static FeatureSpace createFeatureSpace() {
+        FeatureSpace space = new FeatureSpace(SINGLE_PRECISION);
+        if (USE_FISHER) {
+            space.setDistanceThresholds(0, 0);
+        }
+        return space;
     }
 
     //Initializes the user interface with a modern design
@@ -306,7 +423,7 @@ public class Main extends JPanel implements ActionListener {
 
     private void logout() {
         int confirm = JOptionPane.showConfirmDialog(this,
-                "Are you sure you want to logout?\n\nAll training data will be cleared.",
+                "Are you sure you want to logout?\n\nThe session will be cleared. The trained model and\nenrolled faces stay saved for the next login.",
                 "Confirm Logout",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.WARNING_MESSAGE);
@@ -359,13 +476,15 @@ public class Main extends JPanel implements ActionListener {
         if (featureSpace != null) {
             featureSpace.clear();
         }
-        featureSpace = new FeatureSpace();
+        featureSpace = createFeatureSpace();
 
         // Reset eigenfaces completely
         if (eigenFaces != null) {
             eigenFaces.reset();
         }
         eigenFaces = new TSCD();
+        eigenFaces.setSinglePrecision(SINGLE_PRECISION);
+        eigenFaces.setRetainedVariance(RETAINED_VARIANCE);
 
         // Clear browser and UI
         if (faceBrowser != null) {
@@ -482,6 +601,9 @@ public class Main extends JPanel implements ActionListener {
 
             // Extract features
             double[] rslt = eigenFaces.getEigenFaces(f.getPicture(), NUM_EIGEN_VECTORS);
+            if (USE_FISHER) {
+                rslt = fisher.project(rslt);
+            }
 
             // Create feature vector
             lastFeatureVector = new FeatureVector();
@@ -785,15 +907,31 @@ public class Main extends JPanel implements ActionListener {
             try {
                 // Process training set
                 eigenFaces.processTrainingSet(faces.toArray(new Face[0]), progress);
+                saveModel();
 
-                // Build feature space
-                for (Face f : faces) {
-                    double[] rslt = eigenFaces.getEigenFaces(f.getPicture(), NUM_EIGEN_VECTORS);
-                    featureSpace.insertIntoDatabase(f, rslt);
+                // Build feature space, deferring the distance statistics to one pass
+                Face[] enrolled = faces.toArray(new Face[0]);
+                Picture[] pictures = new Picture[enrolled.length];
+                for (int i = 0; i < enrolled.length; i++) {
+                    pictures[i] = enrolled[i].getPicture();
+                }
+                double[][] vectors = eigenFaces.getEigenFaces(pictures, NUM_EIGEN_VECTORS);
+                featureSpace.insertIntoDatabase(enrolled, vectors);
+                saveGallery();
+
+                // Optionally replace the eigenface vectors with Fisher vectors trained on their labels
+                if (USE_FISHER) {
+                    fisher = new FisherProjector();
+                    fisher.train(featureSpace);
+                    vectors = fisher.project(vectors);
+                    featureSpace.clear();
+                    featureSpace.insertIntoDatabase(enrolled, vectors);
+                }
 
+                for (int i = 0; i < enrolled.length; i++) {
                     FeatureVector fv = new FeatureVector();
-                    fv.setFeatureVector(rslt);
-                    fv.setFace(f);
+                    fv.setFeatureVector(vectors[i]);
+                    fv.setFace(enrolled[i]);
                     trainingSet.add(fv);
                 }
 
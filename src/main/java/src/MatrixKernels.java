@@ -0,0 +1,341 @@
+package src;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import Jama.Matrix;
+
+// Dense products used by training, tiled for the cache and spread across a ForkJoinPool.
+// Every output element is summed in the same order as JAMA's Matrix.times, so results
+// are bitwise identical to the single-threaded code they replace. The float[][] forms
+// take a single-precision left operand and accumulate in double.
+
+public final class MatrixKernels {
+    private static final int GRAM_TILE = 64;          // Edge of a Gram tile, 32KB of doubles
+    private static final int ROW_BLOCK = 64;          // Output rows per product task
+    private static final long PARALLEL_WORK = 1L << 22;  // Multiply-adds below which one thread is faster
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private MatrixKernels() {
+    }
+
+    // Computes A^T A for a pixels × faces matrix. Only the tiles on and above the diagonal
+    // are computed; the lower triangle is mirrored from them. A is never transposed.
+
+    public static Matrix gram(Matrix A) {
+        int n = A.getColumnDimension();
+        Matrix result = new Matrix(n, n);
+        addGram(A.getArray(), A.getRowDimension(), result);
+        return result;
+    }
+
+    // Adds the Gram matrix of the first rows of a (rows × n) to an n × n result, so that a
+    // scatter matrix can be accumulated one chunk of rows at a time.
+
+    public static void addGram(final double[][] a, final int rows, Matrix result) {
+        final int n = result.getColumnDimension();
+        final double[][] g = result.getArray();
+
+        final int tiles = (n + GRAM_TILE - 1) / GRAM_TILE;
+        final int[] tileRows = new int[tiles * (tiles + 1) / 2];
+        final int[] tileColumns = new int[tileRows.length];
+        int count = 0;
+        for (int i = 0; i < tiles; i++) {
+            for (int j = i; j < tiles; j++) {
+                tileRows[count] = i;
+                tileColumns[count] = j;
+                count++;
+            }
+        }
+
+        long work = (long) rows * n * (n + 1) / 2;
+        run(tileRows.length, work, new Task() {
+            @Override
+            public void run(int tile) {
+                int rowStart = tileRows[tile] * GRAM_TILE;
+                int rowEnd = Math.min(n, rowStart + GRAM_TILE);
+                int columnStart = tileColumns[tile] * GRAM_TILE;
+                int columnEnd = Math.min(n, columnStart + GRAM_TILE);
+
+                for (int p = 0; p < rows; p++) {
+                    double[] row = a[p];
+                    for (int i = rowStart; i < rowEnd; i++) {
+                        double value = row[i];
+                        double[] gRow = g[i];
+                        for (int j = Math.max(i, columnStart); j < columnEnd; j++) {
+                            gRow[j] += value * row[j];
+                        }
+                    }
+                }
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int j = Math.max(i + 1, columnStart); j < columnEnd; j++) {
+                        g[j][i] = g[i][j];
+                    }
+                }
+            }
+        });
+    }
+
+    // Computes A B, each task filling a block of rows of the result.
+
+    public static Matrix times(Matrix A, Matrix B) {
+        if (A.getColumnDimension() != B.getRowDimension()) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final double[][] a = A.getArray();
+        final double[][] b = B.getArray();
+        final int inner = B.getRowDimension();
+        final int columns = B.getColumnDimension();
+        final Matrix result = new Matrix(A.getRowDimension(), columns);
+        final double[][] c = result.getArray();
+
+        long work = (long) a.length * inner * columns;
+        run((a.length + ROW_BLOCK - 1) / ROW_BLOCK, work, new Task() {
+            @Override
+            public void run(int block) {
+                int end = Math.min(a.length, (block + 1) * ROW_BLOCK);
+                for (int r = block * ROW_BLOCK; r < end; r++) {
+                    double[] aRow = a[r];
+                    double[] cRow = c[r];
+                    for (int i = 0; i < inner; i++) {
+                        double value = aRow[i];
+                        double[] bRow = b[i];
+                        for (int j = 0; j < columns; j++) {
+                            cRow[j] += value * bRow[j];
+                        }
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    // Computes A^T B without materialising the transpose of A, each task filling
+    // a block of rows of the result (columns of A).
+
+    public static Matrix transposeTimes(Matrix A, Matrix B) {
+        if (A.getRowDimension() != B.getRowDimension()) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final double[][] a = A.getArray();
+        final double[][] b = B.getArray();
+        final int rows = A.getColumnDimension();
+        final int columns = B.getColumnDimension();
+        final Matrix result = new Matrix(rows, columns);
+        final double[][] c = result.getArray();
+
+        long work = (long) a.length * rows * columns;
+        run((rows + ROW_BLOCK - 1) / ROW_BLOCK, work, new Task() {
+            @Override
+            public void run(int block) {
+                int start = block * ROW_BLOCK;
+                int end = Math.min(rows, start + ROW_BLOCK);
+                for (int p = 0; p < a.length; p++) {
+                    double[] aRow = a[p];
+                    double[] bRow = b[p];
+                    for (int i = start; i < end; i++) {
+                        double value = aRow[i];
+                        double[] cRow = c[i];
+                        for (int j = 0; j < columns; j++) {
+                            cRow[j] += value * bRow[j];
+                        }
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    // Same as gram(Matrix) for a single-precision pixels × faces matrix
+
+    public static Matrix gram(final float[][] a) {
+        final int n = a.length == 0 ? 0 : a[0].length;
+        final Matrix result = new Matrix(n, n);
+        final double[][] g = result.getArray();
+
+        final int tiles = (n + GRAM_TILE - 1) / GRAM_TILE;
+        final int[] tileRows = new int[tiles * (tiles + 1) / 2];
+        final int[] tileColumns = new int[tileRows.length];
+        int count = 0;
+        for (int i = 0; i < tiles; i++) {
+            for (int j = i; j < tiles; j++) {
+                tileRows[count] = i;
+                tileColumns[count] = j;
+                count++;
+            }
+        }
+
+        long work = (long) a.length * n * (n + 1) / 2;
+        run(tileRows.length, work, new Task() {
+            @Override
+            public void run(int tile) {
+                int rowStart = tileRows[tile] * GRAM_TILE;
+                int rowEnd = Math.min(n, rowStart + GRAM_TILE);
+                int columnStart = tileColumns[tile] * GRAM_TILE;
+                int columnEnd = Math.min(n, columnStart + GRAM_TILE);
+
+                for (float[] row : a) {
+                    for (int i = rowStart; i < rowEnd; i++) {
+                        double value = row[i];
+                        double[] gRow = g[i];
+                        for (int j = Math.max(i, columnStart); j < columnEnd; j++) {
+                            gRow[j] += value * row[j];
+                        }
+                    }
+                }
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int j = Math.max(i + 1, columnStart); j < columnEnd; j++) {
+                        g[j][i] = g[i][j];
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    // Same as times(Matrix, Matrix) with a single-precision A
+
+    public static Matrix times(final float[][] a, Matrix B) {
+        final int inner = B.getRowDimension();
+        if (a.length > 0 && a[0].length != inner) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final double[][] b = B.getArray();
+        final int columns = B.getColumnDimension();
+        final Matrix result = new Matrix(a.length, columns);
+        final double[][] c = result.getArray();
+
+        long work = (long) a.length * inner * columns;
+        run((a.length + ROW_BLOCK - 1) / ROW_BLOCK, work, new Task() {
+            @Override
+            public void run(int block) {
+                int end = Math.min(a.length, (block + 1) * ROW_BLOCK);
+                for (int r = block * ROW_BLOCK; r < end; r++) {
+                    float[] aRow = a[r];
+                    double[] cRow = c[r];
+                    for (int i = 0; i < inner; i++) {
+                        double value = aRow[i];
+                        double[] bRow = b[i];
+                        for (int j = 0; j < columns; j++) {
+                            cRow[j] += value * bRow[j];
+                        }
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    // Same as above with a single-precision B as well, given as row-major rows of stride
+    // values of which the first columns are used. Products are accumulated in double.
+
+    public static double[][] times(final float[][] a, final float[] b, final int stride, final int columns) {
+        final int inner = a.length == 0 ? 0 : a[0].length;
+        if ((long) inner * stride > b.length || columns > stride) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final double[][] c = new double[a.length][columns];
+
+        long work = (long) a.length * inner * columns;
+        run((a.length + ROW_BLOCK - 1) / ROW_BLOCK, work, new Task() {
+            @Override
+            public void run(int block) {
+                int end = Math.min(a.length, (block + 1) * ROW_BLOCK);
+                for (int r = block * ROW_BLOCK; r < end; r++) {
+                    float[] aRow = a[r];
+                    double[] cRow = c[r];
+                    for (int i = 0, offset = 0; i < inner; i++, offset += stride) {
+                        double value = aRow[i];
+                        for (int j = 0; j < columns; j++) {
+                            cRow[j] += value * b[offset + j];
+                        }
+                    }
+                }
+            }
+        });
+        return c;
+    }
+
+    // Same as transposeTimes(Matrix, Matrix) with a single-precision A
+
+    public static Matrix transposeTimes(final float[][] a, Matrix B) {
+        if (a.length != B.getRowDimension()) {
+            throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+        }
+        final double[][] b = B.getArray();
+        final int rows = a.length == 0 ? 0 : a[0].length;
+        final int columns = B.getColumnDimension();
+        final Matrix result = new Matrix(rows, columns);
+        final double[][] c = result.getArray();
+
+        long work = (long) a.length * rows * columns;
+        run((rows + ROW_BLOCK - 1) / ROW_BLOCK, work, new Task() {
+            @Override
+            public void run(int block) {
+                int start = block * ROW_BLOCK;
+                int end = Math.min(rows, start + ROW_BLOCK);
+                for (int p = 0; p < a.length; p++) {
+                    float[] aRow = a[p];
+                    double[] bRow = b[p];
+                    for (int i = start; i < end; i++) {
+                        double value = aRow[i];
+                        double[] cRow = c[i];
+                        for (int j = 0; j < columns; j++) {
+                            cRow[j] += value * bRow[j];
+                        }
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    // Sets the pool training products are spread across
+
+    public static void setPool(ForkJoinPool pool) {
+        MatrixKernels.pool = pool;
+    }
+
+    // One independent unit of work, writing a region of the result no other unit touches
+
+    private interface Task {
+        void run(int index);
+    }
+
+    // Runs tasks 0..count-1, in parallel when there is enough work to pay for it
+
+    private static void run(int count, long work, Task task) {
+        ForkJoinPool current = pool;
+        if (count <= 1 || work < PARALLEL_WORK || current.getParallelism() <= 1) {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+        } else {
+            current.invoke(new Split(task, 0, count));
+        }
+    }
+
+    private static class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Task task;
+        private final int from;
+        private final int to;
+
+        Split(Task task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.run(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Split(task, from, middle), new Split(task, middle, to));
+        }
+    }
+}
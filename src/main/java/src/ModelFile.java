@@ -0,0 +1,200 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import Jama.Matrix;
+
+// Binary file format for a trained eigenface model.
+//
+// Header (32 bytes, little-endian):
+//   int  magic           "EIGF"
+//   int  version
+//   int  precision       PRECISION_FLOAT64 or PRECISION_FLOAT32
+//   int  pixelCount
+//   int  componentCount
+//   int  trainingCount   faces the model was trained on, 0 if unknown
+//   long checksum        CRC32 of the payload
+// Payload:
+//   averageFace          pixelCount values
+//   eigenValues          componentCount values (the diagonal)
+//   eigenVectors         pixelCount x componentCount values, row-major
+
+public final class ModelFile {
+    public static final int PRECISION_FLOAT64 = 0;
+    public static final int PRECISION_FLOAT32 = 1;
+
+    private static final int MAGIC = 0x46474945;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private ModelFile() {
+    }
+
+    // Writes a trained model to a file, replacing any existing content. The model is written
+    // to a temporary file next to it and renamed over it, so a crash leaves either the old
+    // model or the new one, never a truncated file. Returns the payload checksum, which
+    // identifies the model, e.g. to the gallery enrolled with it.
+
+    public static long write(TSCD model, File file, int precision) throws IOException {
+        if (!model.isTrained()) {
+            throw new IllegalStateException("System not trained yet");
+        }
+        if (precision != PRECISION_FLOAT64 && precision != PRECISION_FLOAT32) {
+            throw new IllegalArgumentException("Unknown precision: " + precision);
+        }
+
+        double[][] average = model.getAverageFace().getArray();
+        double[][] values = model.getEigenValues().getArray();
+        double[][] vectors = model.getEigenVectors().getArray();
+        int pixelCount = vectors.length;
+        int componentCount = model.getNumEigenVectors();
+
+        long valueCount = (long) pixelCount + componentCount + (long) pixelCount * componentCount;
+        int valueSize = precision == PRECISION_FLOAT64 ? Double.BYTES : Float.BYTES;
+        ByteBuffer payload = ByteBuffer.allocate(Math.toIntExact(valueCount * valueSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < pixelCount; i++) {
+            put(payload, average[i][0], precision);
+        }
+        for (int i = 0; i < componentCount; i++) {
+            put(payload, values[i][i], precision);
+        }
+        for (int i = 0; i < pixelCount; i++) {
+            for (int j = 0; j < componentCount; j++) {
+                put(payload, vectors[i][j], precision);
+            }
+        }
+        payload.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt(precision)
+              .putInt(pixelCount)
+              .putInt(componentCount)
+              .putInt(model.getTrainingCount())
+              .putLong(crc.getValue());
+        header.flip();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (payload.hasRemaining()) {
+                channel.write(payload);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return crc.getValue();
+    }
+
+    // Memory-maps a model file and loads it into the given model, replacing any previous training.
+    // Returns the payload checksum, as write() does.
+
+    public static long read(File file, TSCD model) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a model file: " + file.getName());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a model file: " + file.getName());
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported model file version " + version + ", expected " + VERSION);
+        }
+        int precision = buffer.getInt();
+        if (precision != PRECISION_FLOAT64 && precision != PRECISION_FLOAT32) {
+            throw new IOException("Unknown precision in model file: " + precision);
+        }
+        int pixelCount = buffer.getInt();
+        int componentCount = buffer.getInt();
+        int trainingCount = buffer.getInt();
+        long checksum = buffer.getLong();
+
+        if (pixelCount <= 0 || componentCount <= 0) {
+            throw new IOException("Invalid model dimensions: " + pixelCount + " x " + componentCount);
+        }
+        int valueSize = precision == PRECISION_FLOAT64 ? Double.BYTES : Float.BYTES;
+        long expected = ((long) pixelCount + componentCount + (long) pixelCount * componentCount) * valueSize;
+        if (buffer.remaining() != expected) {
+            throw new IOException("Model file is " + buffer.remaining() + " payload bytes, expected " + expected);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        if (crc.getValue() != checksum) {
+            throw new IOException("Model file checksum mismatch: " + file.getName());
+        }
+
+        double[] averageValues = new double[pixelCount];
+        readValues(buffer, precision, averageValues);
+        Matrix average = new Matrix(averageValues, pixelCount);
+
+        double[] diagonal = new double[componentCount];
+        readValues(buffer, precision, diagonal);
+        Matrix values = new Matrix(componentCount, componentCount);
+        for (int i = 0; i < componentCount; i++) {
+            values.set(i, i, diagonal[i]);
+        }
+
+        Matrix vectors = new Matrix(pixelCount, componentCount);
+        double[][] vectorsArray = vectors.getArray();
+        for (int i = 0; i < pixelCount; i++) {
+            readValues(buffer, precision, vectorsArray[i]);
+        }
+
+        model.restore(average, vectors, values, Math.max(0, trainingCount));
+        return checksum;
+    }
+
+    private static void put(ByteBuffer buffer, double value, int precision) {
+        if (precision == PRECISION_FLOAT64) {
+            buffer.putDouble(value);
+        } else {
+            buffer.putFloat((float) value);
+        }
+    }
+
+    // Bulk-reads out.length values from the buffer, advancing its position
+
+    private static void readValues(ByteBuffer buffer, int precision, double[] out) {
+        if (precision == PRECISION_FLOAT64) {
+            buffer.asDoubleBuffer().get(out);
+            buffer.position(buffer.position() + out.length * Double.BYTES);
+        } else {
+            float[] values = new float[out.length];
+            buffer.asFloatBuffer().get(values);
+            buffer.position(buffer.position() + out.length * Float.BYTES);
+            for (int i = 0; i < values.length; i++) {
+                out[i] = values[i];
+            }
+        }
+    }
+}
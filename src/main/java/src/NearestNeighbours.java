@@ -0,0 +1,136 @@
+package src;
+
+public class NearestNeighbours {
+    private final double[] distances;   // Max-heap keyed on distance, worst candidate at the root
+    private final int[] indices;        // Gallery row of each candidate, parallel to distances
+    private int size;
+
+    // Creating a bounded collection that keeps the k closest candidates offered to it
+
+    public NearestNeighbours(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        distances = new double[capacity];
+        indices = new int[capacity];
+    }
+
+    // Offers a candidate, returning true if it was kept.
+    // Ties are broken on the lower index so results match a stable full sort.
+
+    public boolean offer(double distance, int index) {
+        if (size < distances.length) {
+            distances[size] = distance;
+            indices[size] = index;
+            siftUp(size++);
+            return true;
+        }
+
+        if (!closer(distance, index, distances[0], indices[0])) {
+            return false;
+        }
+
+        distances[0] = distance;
+        indices[0] = index;
+        siftDown(0, size);
+        return true;
+    }
+
+    // Distance a candidate has to beat to be kept, infinite until the heap is full
+
+    public double worstDistance() {
+        return size < distances.length ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    // Adds every candidate held by another collection
+
+    public void merge(NearestNeighbours other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.distances[i], other.indices[i]);
+        }
+    }
+
+    // Orders the candidates closest first. Offering again afterwards requires clear().
+
+    public void sort() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    // Replaces every distance by its square root, for results ranked on squared distances
+
+    public void squareRootDistances() {
+        for (int i = 0; i < size; i++) {
+            distances[i] = Math.sqrt(distances[i]);
+        }
+    }
+
+    public double getDistance(int i) {
+        return distances[i];
+    }
+
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return distances.length;
+    }
+
+    public boolean isFull() {
+        return size == distances.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private static boolean closer(double d1, int i1, double d2, int i2) {
+        return d1 < d2 || (d1 == d2 && i1 < i2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!closer(distances[parent], indices[parent], distances[i], indices[i])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int end) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= end) {
+                return;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < end && closer(distances[left], indices[left], distances[right], indices[right])) {
+                worst = right;
+            }
+            if (!closer(distances[i], indices[i], distances[worst], indices[worst])) {
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double d = distances[i];
+        distances[i] = distances[j];
+        distances[j] = d;
+        int idx = indices[i];
+        indices[i] = indices[j];
+        indices[j] = idx;
+    }
+}
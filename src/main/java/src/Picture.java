@@ -89,6 +89,39 @@ public class Picture extends JComponent {
         return grayscalePixels;
     }
     
+    // Writes the grayscale pixel values into out, using argb as scratch space.
+    // Both arrays must hold at least width × height values; returns the pixel count.
+
+    public int getImagePixels(int[] argb, double[] out) {
+        if (image == null) {
+            return 0;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int count = width * height;
+        if (argb.length < count || out.length < count) {
+            throw new IllegalArgumentException(
+                "Buffers hold " + Math.min(argb.length, out.length) + " pixels, image has " + count);
+        }
+
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            // Packed the same way getRGB returns them, without a per-pixel color model lookup
+            image.getRaster().getDataElements(0, 0, width, height, argb);
+        } else {
+            image.getRGB(0, 0, width, height, argb, 0, width);
+        }
+        for (int i = 0; i < count; i++) {
+            int rgb = argb[i];
+            int red = (rgb >> 16) & 0xff;
+            int green = (rgb >> 8) & 0xff;
+            int blue = rgb & 0xff;
+            out[i] = (red + green + blue) / COLOR_CHANNEL_WEIGHT;
+        }
+        return count;
+    }
+    
     // Gets the color pixel values of the image.
 
     public double[] getImageColorPixels() {
@@ -0,0 +1,278 @@
+package src;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Product-quantization index. Each vector is split into subspaces and every subvector is
+// replaced by the one-byte id of its nearest codebook centroid, so a gallery row costs
+// one byte per subspace. A probe builds a table of its squared distance to every
+// centroid of every subspace; scoring a row is then one table lookup per subspace.
+// The best-scoring rows are re-ranked with exact distances, so the reported distances
+// are exact and only the shortlist is approximate.
+
+public class ProductQuantizer extends LockedGalleryIndex {
+    public static final int DEFAULT_CENTROIDS = 256;
+
+    private static final int TRAINING_ITERATIONS = 20;
+    private static final int MAX_TRAINING_ROWS = 65536;
+    private static final int RERANK_FACTOR = 8;     // Default shortlist, in multiples of k
+    private static final int MIN_SHORTLIST = 64;
+    private static final long SEED = 42L;
+
+    private final int requestedSubspaces;
+    private final int centroids;
+    private ExecutorService retrainer;
+
+    // Guarded by lock
+
+    private Codebooks codebooks;      // null until trained
+    private byte[] codes = new byte[0];  // Row-major, one code per subspace
+    private int encoded;              // Rows [0, encoded) have codes; later rows are scanned exactly
+    private FeatureMatrix latest;     // Newest view seen by the writer, for rows added during a retrain
+    private int generation;           // Bumped by build, so a stale retrain is discarded
+    private boolean retraining;
+
+    public ProductQuantizer(int subspaces) {
+        this(subspaces, DEFAULT_CENTROIDS);
+    }
+
+    public ProductQuantizer(int subspaces, int centroids) {
+        if (subspaces <= 0) {
+            throw new IllegalArgumentException("Subspace count must be positive, got " + subspaces);
+        }
+        if (centroids < 1 || centroids > 256) {
+            throw new IllegalArgumentException("Centroids per subspace must be between 1 and 256, got " + centroids);
+        }
+        this.requestedSubspaces = subspaces;
+        this.centroids = centroids;
+    }
+
+    // Trains the codebooks on (a sample of) the rows and encodes every row
+
+    @Override
+    public void build(FeatureMatrix vectors) {
+        lock.writeLock().lock();
+        try {
+            generation++;
+            latest = vectors;
+            codebooks = null;
+            encoded = 0;
+            if (vectors.size() == 0) {
+                return;
+            }
+            codebooks = train(vectors);
+            codes = codebooks.encode(vectors);
+            encoded = vectors.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Encodes a new row with the current codebooks. While the gallery is below the training
+    // sample size, the codebooks are retrained whenever it has doubled since they were last
+    // trained, so that early codebooks fitted to a handful of faces do not stick. Retraining
+    // runs on a background thread from an immutable view of the gallery and is swapped in,
+    // so enrollment and probes never wait for k-means.
+
+    @Override
+    public void add(FeatureMatrix vectors, int row) {
+        boolean retrain = false;
+        int current = -1;
+        lock.writeLock().lock();
+        try {
+            latest = vectors;
+            if (codebooks != null && vectors.getDimension() == codebooks.dimension) {
+                encode(vectors, row);
+                retrain = !retraining && codebooks.trainedRows < MAX_TRAINING_ROWS
+                    && vectors.size() >= 2 * codebooks.trainedRows;
+                retraining |= retrain;
+                current = generation;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (current < 0) {
+            build(vectors);
+        } else if (retrain) {
+            final FeatureMatrix view = vectors;
+            final int expected = current;
+            retrainer().execute(() -> retrain(view, expected));
+        }
+    }
+
+    // searchWidth is the number of rows re-ranked exactly, by default 8k (at least 64)
+
+    @Override
+    protected int searchIndexed(FeatureMatrix vectors, double[] probe, NearestNeighbours nearest, int searchWidth,
+                                int size) {
+        int coded = codebooks == null ? 0 : Math.min(encoded, size);
+        if (coded > 0) {
+            int shortlistSize = searchWidth > 0 ? searchWidth : Math.max(nearest.capacity() * RERANK_FACTOR, MIN_SHORTLIST);
+            NearestNeighbours shortlist = new NearestNeighbours(Math.min(shortlistSize, coded));
+            double[][] table = codebooks.distanceTable(probe);
+            int subspaces = table.length;
+            double worst = Double.POSITIVE_INFINITY;
+            for (int row = 0, offset = 0; row < coded; row++, offset += subspaces) {
+                double score = 0;
+                for (int s = 0; s < subspaces; s++) {
+                    score += table[s][codes[offset + s] & 0xff];
+                }
+                if (score < worst && shortlist.offer(score, row)) {
+                    worst = shortlist.worstDistance();
+                }
+            }
+            for (int i = 0; i < shortlist.size(); i++) {
+                int row = shortlist.getIndex(i);
+                nearest.offer(vectors.squaredDistance(probe, row, nearest.worstDistance()), row);
+            }
+        }
+        return coded;
+    }
+
+    // Gets the number of bytes of codes per gallery row
+
+    public int getCodeSize() {
+        lock.readLock().lock();
+        try {
+            return codebooks == null ? 0 : codebooks.bounds.length - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Subspace bounds and codebooks, trained outside the lock and never changed afterwards
+
+    private static class Codebooks {
+        final int dimension;
+        final int[] bounds;             // Subspace s covers dimensions [bounds[s], bounds[s + 1])
+        final double[][][] centroids;   // [subspace][centroid][dimension within the subspace]
+        final int trainedRows;          // Gallery size the codebooks were trained on
+
+        Codebooks(int dimension, int[] bounds, double[][][] centroids, int trainedRows) {
+            this.dimension = dimension;
+            this.bounds = bounds;
+            this.centroids = centroids;
+            this.trainedRows = trainedRows;
+        }
+
+        // Encodes every row of vectors into a fresh code array
+
+        byte[] encode(FeatureMatrix vectors) {
+            int subspaces = centroids.length;
+            byte[] codes = new byte[Math.max(64, vectors.size() * 2) * subspaces];
+            double[] row = new double[dimension];
+            for (int r = 0; r < vectors.size(); r++) {
+                vectors.copyRow(r, row);
+                encode(row, codes, r * subspaces);
+            }
+            return codes;
+        }
+
+        void encode(double[] vector, byte[] out, int offset) {
+            for (int s = 0; s < centroids.length; s++) {
+                double[] sub = Arrays.copyOfRange(vector, bounds[s], bounds[s + 1]);
+                out[offset + s] = (byte) KMeans.nearest(centroids[s], sub);
+            }
+        }
+
+        // Squared distance from each probe subvector to every centroid of its subspace
+
+        double[][] distanceTable(double[] probe) {
+            double[][] table = new double[centroids.length][];
+            for (int s = 0; s < centroids.length; s++) {
+                double[][] codebook = centroids[s];
+                int from = bounds[s];
+                int to = bounds[s + 1];
+                table[s] = new double[codebook.length];
+                for (int c = 0; c < codebook.length; c++) {
+                    double sum = 0;
+                    for (int d = from; d < to; d++) {
+                        double diff = probe[d] - codebook[c][d - from];
+                        sum += diff * diff;
+                    }
+                    table[s][c] = sum;
+                }
+            }
+            return table;
+        }
+    }
+
+    private Codebooks train(FeatureMatrix vectors) {
+        int dimension = vectors.getDimension();
+        int subspaces = Math.min(requestedSubspaces, dimension);
+        int[] bounds = new int[subspaces + 1];
+        for (int s = 0; s <= subspaces; s++) {
+            bounds[s] = s * dimension / subspaces;
+        }
+
+        // Train on evenly spaced rows when the gallery is larger than the sample
+        int size = vectors.size();
+        int sampleSize = Math.min(size, MAX_TRAINING_ROWS);
+        double[] row = new double[dimension];
+        double[][][] samples = new double[subspaces][sampleSize][];
+        for (int i = 0; i < sampleSize; i++) {
+            vectors.copyRow((int) ((long) i * size / sampleSize), row);
+            for (int s = 0; s < subspaces; s++) {
+                samples[s][i] = Arrays.copyOfRange(row, bounds[s], bounds[s + 1]);
+            }
+        }
+
+        double[][][] trained = new double[subspaces][][];
+        for (int s = 0; s < subspaces; s++) {
+            trained[s] = KMeans.cluster(samples[s], centroids, TRAINING_ITERATIONS, SEED + s);
+        }
+        System.out.println("Product quantizer trained on " + sampleSize + " rows: " + subspaces +
+                           " subspaces × " + trained[0].length + " centroids");
+        return new Codebooks(dimension, bounds, trained, size);
+    }
+
+    // Retrains and re-encodes from an immutable view, then catches up with rows added in the meantime.
+    // The retraining flag is cleared even if training fails, so a later add can schedule another.
+
+    private void retrain(FeatureMatrix view, int expected) {
+        Codebooks trained = null;
+        byte[] recoded = null;
+        try {
+            trained = train(view);
+            recoded = trained.encode(view);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (recoded != null && generation == expected && latest.getDimension() == view.getDimension()) {
+                    int added = encoded;
+                    codebooks = trained;
+                    codes = recoded;
+                    encoded = view.size();
+                    for (int row = view.size(); row < added; row++) {
+                        encode(latest, row);
+                    }
+                }
+                retraining = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void encode(FeatureMatrix vectors, int row) {
+        int subspaces = codebooks.centroids.length;
+        if (codes.length < (row + 1) * subspaces) {
+            codes = Arrays.copyOf(codes, Math.max(64, row * 2 + 2) * subspaces);
+        }
+        codebooks.encode(vectors.getRow(row), codes, row * subspaces);
+        encoded = row + 1;
+    }
+
+    private synchronized ExecutorService retrainer() {
+        if (retrainer == null) {
+            retrainer = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "pq-retrain");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retrainer;
+    }
+}
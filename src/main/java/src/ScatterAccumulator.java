@@ -0,0 +1,97 @@
+package src;
+
+import Jama.Matrix;
+
+// Accumulates the pixel-space scatter matrix S = sum (x - mean)(x - mean)^T one face at a
+// time. Faces are buffered into a fixed-size chunk and folded into S with one blocked
+// rank-k update per chunk, so memory stays at S plus one chunk whatever the face count.
+//
+// Faces are accumulated about a fixed centre, and finish() moves the result to the mean of
+// the faces added with one rank-1 correction, S = sum (x - c)(x - c)^T - n (mean - c)(mean - c)^T.
+// The centre need not be the mean, so the faces can be read in a single pass; a centre
+// close to the data (e.g. the first face) keeps the correction small.
+
+public class ScatterAccumulator {
+    private final double[] centre;
+    private final double[] offsetSum;  // sum (x - centre)
+    private final Matrix scatter;      // pixels × pixels, only complete after finish()
+    private final double[][] chunk;    // Centred faces waiting to be folded in, one per row
+    private int buffered;
+    private int count;
+    private boolean finished;
+
+    public ScatterAccumulator(double[] centre, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+        }
+        this.centre = centre.clone();
+        this.offsetSum = new double[centre.length];
+        this.scatter = new Matrix(centre.length, centre.length);
+        this.chunk = new double[chunkSize][centre.length];
+    }
+
+    // Adds one face
+
+    public void add(double[] pixels) {
+        if (finished) {
+            throw new IllegalStateException("Scatter matrix already finished");
+        }
+        if (pixels.length != centre.length) {
+            throw new IllegalArgumentException(
+                "Image has " + pixels.length + " pixels, expected " + centre.length);
+        }
+        double[] row = chunk[buffered];
+        for (int i = 0; i < pixels.length; i++) {
+            row[i] = pixels[i] - centre[i];
+            offsetSum[i] += row[i];
+        }
+        count++;
+        if (++buffered == chunk.length) {
+            flush();
+        }
+    }
+
+    // Mean of the faces added so far
+
+    public double[] getMean() {
+        double[] mean = centre.clone();
+        if (count > 0) {
+            for (int i = 0; i < mean.length; i++) {
+                mean[i] += offsetSum[i] / count;
+            }
+        }
+        return mean;
+    }
+
+    // Folds in any buffered faces and returns the scatter matrix about their mean
+
+    public Matrix finish() {
+        if (!finished) {
+            flush();
+            if (count > 0) {
+                double[][] s = scatter.getArray();
+                for (int i = 0; i < centre.length; i++) {
+                    double shift = offsetSum[i] / count;
+                    for (int j = 0; j < centre.length; j++) {
+                        s[i][j] -= shift * offsetSum[j];
+                    }
+                }
+            }
+            finished = true;
+        }
+        return scatter;
+    }
+
+    // Number of faces added so far
+
+    public int getCount() {
+        return count;
+    }
+
+    private void flush() {
+        if (buffered > 0) {
+            MatrixKernels.addGram(chunk, buffered, scatter);
+            buffered = 0;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package src;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import Jama.Matrix;
+
+// Trains a TSCD model from an image source too large to hold in memory. The source is
+// read once: the pixel scatter matrix is accumulated about the first image in fixed-size
+// chunks and moved to the average face at the end (see ScatterAccumulator). Only one chunk
+// of pixels is held at a time, so memory depends on the image size and the chunk size,
+// not on the number of images.
+
+public class StreamingTrainer {
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final int chunkSize;
+
+    public StreamingTrainer() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public StreamingTrainer(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    // Trains the model on every picture of the source, in a single pass.
+    // Set a solver rank on the model to compute only the leading eigenfaces.
+
+    public void train(Iterable<Picture> source, TSCD model) {
+        ScatterAccumulator accumulator = null;
+        int pixelCount = 0;
+        for (Picture picture : source) {
+            double[] pixels = picture.getImagePixels();
+            if (accumulator == null) {
+                accumulator = new ScatterAccumulator(pixels, chunkSize);
+                pixelCount = pixels.length;
+            } else if (pixels.length != pixelCount) {
+                throw new IllegalArgumentException(
+                    "All images must have the same dimensions. " +
+                    "Image " + accumulator.getCount() + " has " + pixels.length + " pixels, expected " + pixelCount);
+            }
+            accumulator.add(pixels);
+        }
+        if (accumulator == null) {
+            throw new IllegalArgumentException("No faces provided for training");
+        }
+
+        double[] mean = accumulator.getMean();
+        Matrix scatter = accumulator.finish();
+        System.out.println("Streaming trainer: scatter matrix of " + accumulator.getCount() + " images accumulated, " +
+                           pixelCount + " × " + pixelCount);
+
+        model.trainFromScatter(mean, scatter, accumulator.getCount());
+    }
+
+    // An image source that loads each file as a cropped Face when it is reached, the same
+    // way faces are loaded for training and probing, so that no more than one decoded
+    // picture is alive at a time.
+
+    public static Iterable<Picture> fromFiles(List<File> files) {
+        return fromFiles(files, file -> {
+            try {
+                return new Face(file, true).getPicture();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Cannot load image " + file + ": " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // Same as above with the given loader, e.g. one that applies other preprocessing
+
+    public static Iterable<Picture> fromFiles(final List<File> files, final Function<File, Picture> loader) {
+        return new Iterable<Picture>() {
+            @Override
+            public Iterator<Picture> iterator() {
+                final Iterator<File> iterator = files.iterator();
+                return new Iterator<Picture>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Picture next() {
+                        return loader.apply(iterator.next());
+                    }
+                };
+            }
+        };
+    }
+}
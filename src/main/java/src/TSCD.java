@@ -4,15 +4,43 @@ import java.util.Arrays;
 import src.Main.ProgressTracker;
 import Jama.EigenvalueDecomposition;
 import Jama.Matrix;
+import Jama.QRDecomposition;
+import Jama.SingularValueDecomposition;
 
 public class TSCD {
+    // Which eigenproblem training solves (see setFormulation)
+    public static final int FORMULATION_AUTO = 0;
+    public static final int FORMULATION_SNAPSHOT = 1;     // faces × faces, A^T A
+    public static final int FORMULATION_COVARIANCE = 2;   // pixels × pixels, A A^T
+
     private static final double EIGENVALUE_THRESHOLD = 0.0001;
+    private static final double DEFAULT_SOLVER_TOLERANCE = 1e-8;
+    private static final int SOLVER_MAX_ITERATIONS = 300;
+    private static final int MAX_UPDATE_BATCH = 256;      // Faces folded in per step by updateTrainingSet
 
     private Matrix averageFace;        // Stores the average face useful when probing the database
     private Matrix eigenVectors;       // Stores all the sorted eigen vectors from the training set
+    private float[] floatEigenVectors; // Single-precision models: the only copy of the eigenvectors once
+                                       // trained, pixel-major, replacing eigenVectors (see compactBasis)
     private Matrix eigenValues;        // Stores all the sorted eigen Values from the training set
     private boolean trained;           // Has a training set been provided yet?
     private int numEigenVectors;       // Number of eigen vectors available
+    private volatile Matrix projectionBasis;  // Leading eigenvectors used by the last projection, pixels × number
+    private volatile ProjectionData projectionData;  // Flat copies of the model for single-picture projection
+
+    private int trainingCount;         // Faces folded into the model, 0 if unknown (e.g. an old model file)
+    private double discardedEnergy;    // Variance dropped by incremental updates since the last full training
+    private boolean singlePrecision;   // Train on and project with float pixels and basis
+    private int formulation = FORMULATION_AUTO;
+    private double retainedVariance;   // Fraction of the variance the kept eigenvectors must explain, 0 to keep all
+    private int maxComponents;         // Most eigenvectors kept, 0 for no limit
+    private double totalVariance;      // Sum of all eigenvalues of the last training, kept or not
+    private int solverRank;            // Eigenpairs computed by the truncated solver, 0 for a full decomposition
+    private double solverTolerance = DEFAULT_SOLVER_TOLERANCE;
+
+    // Per-thread buffers for single-picture projection
+    private static final ThreadLocal<ProjectionWorkspace> WORKSPACE =
+        ThreadLocal.withInitial(ProjectionWorkspace::new);
 
     // Processes the training set of faces to compute eigenfaces.
 
@@ -22,14 +50,43 @@ public class TSCD {
         }
 
         try {
-            progress.advanceProgress("Constructing matrix...");
-            double[][] dpix = constructImageMatrix(faces);
+            projectionBasis = null;
+            projectionData = null;
+            floatEigenVectors = null;
+
+            int pixelCount = faces[0].getPicture().getImagePixels().length;
+            if (useCovariance(faces.length, pixelCount)) {
+                // More faces than pixels: accumulate the pixel covariance face by face instead
+                progress.advanceProgress("Computing covariance matrix...");
+                Picture[] pictures = new Picture[faces.length];
+                for (int i = 0; i < faces.length; i++) {
+                    pictures[i] = faces[i].getPicture();
+                }
+                new StreamingTrainer().train(Arrays.asList(pictures), this);
+                progress.advanceProgress("Training completed successfully!");
+                return;
+            }
+
+            DifferenceMatrix diffMatrix;
+            if (singlePrecision) {
+                progress.advanceProgress("Constructing matrix...");
+                float[][] fpix = constructSingleImageMatrix(faces);
+
+                progress.advanceProgress("Calculating averages...");
+                computeAverageFace(fpix);
 
-            progress.advanceProgress("Calculating averages...");
-            computeAverageFace(dpix);
+                progress.advanceProgress("Computing covariance matrix...");
+                diffMatrix = subtractAverageFace(fpix);
+            } else {
+                progress.advanceProgress("Constructing matrix...");
+                double[][] dpix = constructImageMatrix(faces);
 
-            progress.advanceProgress("Computing covariance matrix...");
-            Matrix diffMatrix = computeDifferenceMatrix(dpix);
+                progress.advanceProgress("Calculating averages...");
+                computeAverageFace(dpix);
+
+                progress.advanceProgress("Computing covariance matrix...");
+                diffMatrix = wrap(computeDifferenceMatrix(dpix));
+            }
 
             progress.advanceProgress("Calculating eigenvectors...");
             computeEigenvectors(diffMatrix);
@@ -43,7 +100,10 @@ public class TSCD {
             progress.advanceProgress("Normalising eigenvectors...");
             normalizeEigenvectors();
 
+            trainingCount = faces.length;
+            discardedEnergy = 0;
             trained = true;
+            compactBasis();
             progress.advanceProgress("Training completed successfully!");
             
         } catch (Exception e) {
@@ -55,6 +115,16 @@ public class TSCD {
         }
     }
 
+    // Whether training should solve the pixels × pixels covariance problem rather than the
+    // faces × faces snapshot problem. Automatically, the smaller of the two is chosen.
+
+    private boolean useCovariance(int faceCount, int pixelCount) {
+        if (formulation == FORMULATION_AUTO) {
+            return faceCount > pixelCount;
+        }
+        return formulation == FORMULATION_COVARIANCE;
+    }
+
     //  Constructs the image matrix from the training faces.
 
     private double[][] constructImageMatrix(Face[] faces) {
@@ -93,6 +163,63 @@ public class TSCD {
         return dpix;
     }
 
+    //  Constructs the image matrix in single precision, checking dimensions as it goes.
+
+    private float[][] constructSingleImageMatrix(Face[] faces) {
+        int pixelCount = faces[0].getPicture().getImagePixels().length;
+        int faceCount = faces.length;
+
+        System.out.println("Constructing single-precision matrix with " + pixelCount + " pixels and " + faceCount + " faces");
+
+        float[][] fpix = new float[pixelCount][faceCount];
+        for (int faceIdx = 0; faceIdx < faceCount; faceIdx++) {
+            double[] pixels = faces[faceIdx].getPicture().getImagePixels();
+            if (pixels.length != pixelCount) {
+                throw new IllegalArgumentException(
+                    "All images must have the same dimensions. " +
+                    "Image " + faceIdx + " has " + pixels.length + " pixels, expected " + pixelCount
+                );
+            }
+            for (int pixelIdx = 0; pixelIdx < pixelCount; pixelIdx++) {
+                fpix[pixelIdx][faceIdx] = (float) pixels[pixelIdx];
+            }
+        }
+        return fpix;
+    }
+
+    // Computes the average face from a single-precision image matrix, summing in double.
+
+    private void computeAverageFace(float[][] fpix) {
+        int pixelCount = fpix.length;
+        int faceCount = fpix[0].length;
+
+        averageFace = new Matrix(pixelCount, 1);
+        for (int i = 0; i < pixelCount; i++) {
+            double sum = 0;
+            for (int j = 0; j < faceCount; j++) {
+                sum += fpix[i][j];
+            }
+            averageFace.set(i, 0, sum / faceCount);
+        }
+
+        System.out.println("Average face computed with " + pixelCount + " pixels");
+    }
+
+    // Subtracts the average face in place, so training holds a single float copy of the faces.
+
+    private DifferenceMatrix subtractAverageFace(float[][] fpix) {
+        for (int i = 0; i < fpix.length; i++) {
+            double average = averageFace.get(i, 0);
+            float[] row = fpix[i];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = (float) (row[j] - average);
+            }
+        }
+
+        System.out.println("Difference matrix computed: " + fpix.length + " × " + fpix[0].length);
+        return wrap(fpix);
+    }
+
     // Computes the average face from the training set.
 
     private void computeAverageFace(double[][] dpix) {
@@ -135,23 +262,27 @@ public class TSCD {
 
     // Computes the eigenvectors of the covariance matrix.
 
-    private void computeEigenvectors(Matrix A) {
+    private void computeEigenvectors(DifferenceMatrix A) {
         try {
-            int pixelCount = A.getRowDimension();
-            int faceCount = A.getColumnDimension();
+            int pixelCount = A.pixelCount();
+            int faceCount = A.faceCount();
+            totalVariance = A.squaredNorm();  // trace(A^T A), the sum of every eigenvalue
             
             System.out.println("Computing eigenvectors for matrix: " + pixelCount + " × " + faceCount);
             
             // Use the efficient approach: compute eigenvectors of A^T * A (faces × faces)
             // This is much smaller than A * A^T (pixels × pixels)
-            Matrix At = A.transpose(); // faces × pixels
-            Matrix L = At.times(A);    // faces × faces
-            
-            System.out.println("Computing eigen decomposition of " + L.getRowDimension() + " × " + L.getColumnDimension() + " matrix");
-            
-            EigenvalueDecomposition eigen = L.eig();
-            eigenValues = eigen.getD();
-            eigenVectors = eigen.getV();
+            if (solverRank > 0 && solverRank < faceCount) {
+                computeLeadingEigenvectors(A);
+            } else {
+                Matrix L = A.gram();       // faces × faces, A^T * A
+                
+                System.out.println("Computing eigen decomposition of " + L.getRowDimension() + " × " + L.getColumnDimension() + " matrix");
+                
+                EigenvalueDecomposition eigen = L.eig();
+                eigenValues = eigen.getD();
+                eigenVectors = eigen.getV();
+            }
             
             // Convert to eigenvectors of A * A^T using: u_i = A * v_i
             Matrix actualEigenVectors = A.times(eigenVectors); // pixels × faces
@@ -178,6 +309,125 @@ public class TSCD {
         }
     }
 
+    // Computes only the leading solverRank eigenpairs of A^T * A, applying it as A^T (A x)
+    // so that the faces × faces matrix is never formed.
+
+    private void computeLeadingEigenvectors(final DifferenceMatrix A) {
+        final int faceCount = A.faceCount();
+        System.out.println("Computing " + solverRank + " leading eigenpairs of " + faceCount + " × " + faceCount + " operator");
+
+        TruncatedEigenSolver.Result result = TruncatedEigenSolver.solve(
+            new TruncatedEigenSolver.SymmetricOperator() {
+                @Override
+                public int size() {
+                    return faceCount;
+                }
+
+                @Override
+                public Matrix apply(Matrix block) {
+                    return A.transposeTimes(A.times(block));
+                }
+            }, solverRank, solverTolerance, SOLVER_MAX_ITERATIONS);
+
+        double[] values = result.getValues();
+        eigenValues = new Matrix(values.length, values.length);
+        for (int i = 0; i < values.length; i++) {
+            eigenValues.set(i, i, values[i]);
+        }
+        eigenVectors = result.getVectors();
+    }
+
+    // The mean-subtracted training faces, pixels × faces, in double or single precision
+
+    private interface DifferenceMatrix {
+        int pixelCount();
+
+        int faceCount();
+
+        Matrix gram();
+
+        Matrix times(Matrix B);
+
+        Matrix transposeTimes(Matrix B);
+
+        double squaredNorm();
+    }
+
+    private static DifferenceMatrix wrap(final Matrix A) {
+        return new DifferenceMatrix() {
+            @Override
+            public int pixelCount() {
+                return A.getRowDimension();
+            }
+
+            @Override
+            public int faceCount() {
+                return A.getColumnDimension();
+            }
+
+            @Override
+            public Matrix gram() {
+                return MatrixKernels.gram(A);
+            }
+
+            @Override
+            public Matrix times(Matrix B) {
+                return MatrixKernels.times(A, B);
+            }
+
+            @Override
+            public Matrix transposeTimes(Matrix B) {
+                return MatrixKernels.transposeTimes(A, B);
+            }
+
+            @Override
+            public double squaredNorm() {
+                double norm = A.normF();
+                return norm * norm;
+            }
+        };
+    }
+
+    private static DifferenceMatrix wrap(final float[][] a) {
+        return new DifferenceMatrix() {
+            @Override
+            public int pixelCount() {
+                return a.length;
+            }
+
+            @Override
+            public int faceCount() {
+                return a[0].length;
+            }
+
+            @Override
+            public Matrix gram() {
+                return MatrixKernels.gram(a);
+            }
+
+            @Override
+            public Matrix times(Matrix B) {
+                return MatrixKernels.times(a, B);
+            }
+
+            @Override
+            public Matrix transposeTimes(Matrix B) {
+                return MatrixKernels.transposeTimes(a, B);
+            }
+
+            @Override
+            public double squaredNorm() {
+                double sum = 0;
+                for (float[] row : a) {
+                    for (float value : row) {
+                        sum += (double) value * value;
+                    }
+                }
+                return sum;
+            }
+        };
+    }
+
     // Sorts eigenvectors and eigenvalues in descending order.
 
     private void sortEigenvectors() {
@@ -214,13 +464,13 @@ public class TSCD {
 
     // Extracts and normalizes eigenvalues.
 
-    private void extractEigenvalues(Matrix A) {
+    private void extractEigenvalues(DifferenceMatrix A) {
         if (eigenValues == null) {
             throw new IllegalStateException("Eigenvalues not computed");
         }
         
         double[] values = diag(eigenValues);
-        int faceCount = A.getColumnDimension();
+        int faceCount = A.faceCount();
         
         // Normalize eigenvalues
         for (int i = 0; i < values.length; i++) {
@@ -261,54 +511,198 @@ public class TSCD {
             eigenValues = eigenValues.getMatrix(0, 0, 0, 0);
             System.out.println("No significant eigenvectors found, keeping first eigenvector");
         }
+
+        selectComponents();
+    }
+
+    // Truncates the basis to the fewest eigenvectors explaining the retained variance
+    // fraction, and to at most maxComponents, then reports the choice. The full
+    // variance-vs-k curve stays available from getVarianceCurve().
+
+    private void selectComponents() {
+        double[] curve = getVarianceCurve();
+        int selected = numEigenVectors;
+        if (retainedVariance > 0) {
+            selected = 1;
+            while (selected < curve.length && curve[selected - 1] < retainedVariance) {
+                selected++;
+            }
+        }
+        if (maxComponents > 0) {
+            selected = Math.min(selected, maxComponents);
+        }
+
+        if (selected < numEigenVectors) {
+            numEigenVectors = selected;
+            eigenVectors = eigenVectors.getMatrix(0, eigenVectors.getRowDimension() - 1, 0, selected - 1);
+            eigenValues = eigenValues.getMatrix(0, selected - 1, 0, selected - 1);
+        }
+        System.out.println("Keeping " + selected + " eigenvectors, explaining " +
+                           String.format("%.4f", curve[selected - 1]) + " of the variance");
     }
 
     //  Extracts the eigenface coefficients for a given picture.
 
     public double[] getEigenFaces(Picture pic, int number) {
-        if (!trained) {
-            throw new IllegalStateException("System not trained yet");
+        number = checkProjection(number);
+        double[] result = new double[Math.max(number, 0)];
+        if (number > 0) {
+            getEigenFaces(pic, number, result, WORKSPACE.get());
         }
-        
-        if (eigenVectors == null || numEigenVectors == 0) {
-            throw new IllegalStateException("No eigenvectors available");
+        return result;
+    }
+
+    //  Writes the first number eigenface coefficients of a picture into out,
+    //  using this thread's workspace so that nothing is allocated per call.
+
+    public void getEigenFaces(Picture pic, int number, double[] out) {
+        getEigenFaces(pic, number, out, WORKSPACE.get());
+    }
+
+    //  Same as above with a caller-supplied workspace. Mean subtraction and the dot
+    //  products are fused into one pass over the pixel-major basis.
+
+    public void getEigenFaces(Picture pic, int number, double[] out, ProjectionWorkspace workspace) {
+        number = checkProjection(number);
+        ProjectionData data = getProjectionData();
+        int pixelCount = data.mean.length;
+        int stride = data.components;
+
+        workspace.ensureCapacity(pixelCount);
+        int count = pic.getImagePixels(workspace.argb, workspace.pixels);
+        if (count != pixelCount) {
+            throw new IllegalArgumentException(
+                "Input image has " + count + " pixels, but expected " + pixelCount +
+                " pixels. Image dimensions don't match training set."
+            );
         }
-        
-        if (number > numEigenVectors) {
-            number = numEigenVectors;
-            System.out.println("Reduced number of eigenvectors to " + number);
+
+        double[] pixels = workspace.pixels;
+        double[] mean = data.mean;
+        for (int c = 0; c < number; c++) {
+            out[c] = 0;
         }
-        
+        if (data.floatBasis != null) {
+            float[] basis = data.floatBasis;
+            for (int p = 0, row = 0; p < pixelCount; p++, row += stride) {
+                double diff = pixels[p] - mean[p];
+                for (int c = 0; c < number; c++) {
+                    out[c] += diff * basis[row + c];
+                }
+            }
+            return;
+        }
+        double[] basis = data.basis;
+        for (int p = 0, row = 0; p < pixelCount; p++, row += stride) {
+            double diff = pixels[p] - mean[p];
+            for (int c = 0; c < number; c++) {
+                out[c] += diff * basis[row + c];
+            }
+        }
+    }
+
+    // Gets the flat copies of the average face and the eigenvectors, built once per model.
+
+    private ProjectionData getProjectionData() {
+        ProjectionData data = projectionData;
+        if (data == null && floatEigenVectors != null) {
+            double[] mean = averageFace.getColumnPackedCopy();
+            data = new ProjectionData(mean, null, floatEigenVectors, floatEigenVectors.length / mean.length);
+            projectionData = data;
+        } else if (data == null) {
+            double[] basis = eigenVectors.getRowPackedCopy();
+            float[] floatBasis = null;
+            if (singlePrecision) {
+                floatBasis = new float[basis.length];
+                for (int i = 0; i < basis.length; i++) {
+                    floatBasis[i] = (float) basis[i];
+                }
+                basis = null;
+            }
+            data = new ProjectionData(averageFace.getColumnPackedCopy(), basis, floatBasis,
+                    eigenVectors.getColumnDimension());
+            projectionData = data;
+        }
+        return data;
+    }
+
+    // Average face and the eigenvectors in row-major (pixel-major) order, components per row.
+    // Exactly one of basis and floatBasis is set, depending on the precision of the model.
+
+    private static class ProjectionData {
+        final double[] mean;
+        final double[] basis;
+        final float[] floatBasis;
+        final int components;
+
+        ProjectionData(double[] mean, double[] basis, float[] floatBasis, int components) {
+            this.mean = mean;
+            this.basis = basis;
+            this.floatBasis = floatBasis;
+            this.components = components;
+        }
+    }
+
+    // Reusable buffers for projecting one picture at a time.
+
+    public static class ProjectionWorkspace {
+        private int[] argb = new int[0];
+        private double[] pixels = new double[0];
+
+        void ensureCapacity(int pixelCount) {
+            if (pixels.length < pixelCount) {
+                argb = new int[pixelCount];
+                pixels = new double[pixelCount];
+            }
+        }
+    }
+
+    //  Extracts the eigenface coefficients for many pictures with a single matrix multiply.
+    //  Row i of the result holds the coefficients of pics[i].
+
+    public double[][] getEigenFaces(Picture[] pics, int number) {
+        number = checkProjection(number);
         if (number <= 0) {
-            return new double[0];
+            return new double[pics.length][0];
+        }
+        if (pics.length == 0) {
+            return new double[0][number];
         }
 
         try {
-            double[] pixels = pic.getImagePixels();
-            
-            // Verify the input image has correct dimensions
-            if (pixels.length != averageFace.getRowDimension()) {
-                throw new IllegalArgumentException(
-                    "Input image has " + pixels.length + " pixels, but expected " + 
-                    averageFace.getRowDimension() + " pixels. Image dimensions don't match training set."
-                );
+            // One mean-subtracted face per row: faces × pixels
+            double[] average = averageFace.getColumnPackedCopy();
+            if (singlePrecision) {
+                float[][] faces = new float[pics.length][];
+                for (int f = 0; f < pics.length; f++) {
+                    double[] pixels = pics[f].getImagePixels();
+                    checkPixelCount(pixels);
+                    float[] face = new float[pixels.length];
+                    for (int i = 0; i < pixels.length; i++) {
+                        face[i] = (float) (pixels[i] - average[i]);
+                    }
+                    faces[f] = face;
+                }
+                ProjectionData data = getProjectionData();
+                if (data.floatBasis != null) {
+                    return MatrixKernels.times(faces, data.floatBasis, data.components, number);
+                }
+                return MatrixKernels.times(faces, getProjectionBasis(number)).getArray();
             }
-            
-            // Create face vector and subtract average face
-            Matrix faceVector = new Matrix(pixels, pixels.length);
-            Matrix diff = faceVector.minus(averageFace);
-            
-            // Project onto eigenface space
-            Matrix eigenSubset = eigenVectors.getMatrix(0, eigenVectors.getRowDimension() - 1, 0, number - 1);
-            Matrix coefficients = eigenSubset.transpose().times(diff);
 
-            double[] result = new double[number];
-            for (int i = 0; i < number; i++) {
-                result[i] = coefficients.get(i, 0);
+            double[][] faces = new double[pics.length][];
+            for (int f = 0; f < pics.length; f++) {
+                double[] pixels = pics[f].getImagePixels();
+                checkPixelCount(pixels);
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] -= average[i];
+                }
+                faces[f] = pixels;
             }
-            
-            return result;
-            
+
+            // (faces × pixels) · (pixels × number) = faces × number
+            return MatrixKernels.times(new Matrix(faces), getProjectionBasis(number)).getArray();
+
         } catch (Exception e) {
             System.err.println("Error in getEigenFaces: " + e.getMessage());
             e.printStackTrace();
@@ -316,6 +710,48 @@ public class TSCD {
         }
     }
 
+    // Validates the trained state and clamps the requested number of eigenvectors.
+
+    private int checkProjection(int number) {
+        if (!trained) {
+            throw new IllegalStateException("System not trained yet");
+        }
+        
+        if ((eigenVectors == null && floatEigenVectors == null) || numEigenVectors == 0) {
+            throw new IllegalStateException("No eigenvectors available");
+        }
+        
+        if (number > numEigenVectors) {
+            number = numEigenVectors;
+            System.out.println("Reduced number of eigenvectors to " + number);
+        }
+        return number;
+    }
+
+    // Verifies the input image has the same number of pixels as the training set.
+
+    private void checkPixelCount(double[] pixels) {
+        if (pixels.length != averageFace.getRowDimension()) {
+            throw new IllegalArgumentException(
+                "Input image has " + pixels.length + " pixels, but expected " + 
+                averageFace.getRowDimension() + " pixels. Image dimensions don't match training set."
+            );
+        }
+    }
+
+    // Gets the leading eigenvectors as a pixels × number matrix, copied once and reused
+    // until a different number is requested or the model changes.
+
+    private Matrix getProjectionBasis(int number) {
+        Matrix basis = projectionBasis;
+        if (basis == null || basis.getColumnDimension() != number) {
+            Matrix vectors = eigenVectorMatrix();
+            basis = vectors.getMatrix(0, vectors.getRowDimension() - 1, 0, number - 1);
+            projectionBasis = basis;
+        }
+        return basis;
+    }
+
     // Helper method to extract diagonal elements from a matrix.
 
     private double[] diag(Matrix matrix) {
@@ -352,9 +788,52 @@ public class TSCD {
         return averageFace;
     }
 
-    //  Gets the eigen vectors matrix.
+    //  Gets the eigen vectors matrix. A single-precision model keeps only float eigenvectors,
+    //  so for it this is a double copy made on each call.
     public Matrix getEigenVectors() {
-        return eigenVectors;
+        return eigenVectorMatrix();
+    }
+
+    // Drops the double eigenvectors of a single-precision model at the end of training, keeping
+    // one pixel-major float copy that projection reads directly. Single-precision basis memory
+    // is then half that of a double model instead of the double matrix plus a float copy.
+
+    private void compactBasis() {
+        if (!singlePrecision || eigenVectors == null) {
+            return;
+        }
+        double[][] vectors = eigenVectors.getArray();
+        int components = eigenVectors.getColumnDimension();
+        float[] basis = new float[vectors.length * components];
+        for (int p = 0, offset = 0; p < vectors.length; p++, offset += components) {
+            for (int c = 0; c < components; c++) {
+                basis[offset + c] = (float) vectors[p][c];
+            }
+        }
+        floatEigenVectors = basis;
+        eigenVectors = null;
+        projectionBasis = null;
+        projectionData = null;
+    }
+
+    // The eigenvectors as a pixels × components matrix, widened from the float copy if that
+    // is all the model keeps
+
+    private Matrix eigenVectorMatrix() {
+        float[] basis = floatEigenVectors;
+        if (eigenVectors != null || basis == null) {
+            return eigenVectors;
+        }
+        int pixelCount = averageFace.getRowDimension();
+        int components = basis.length / pixelCount;
+        Matrix matrix = new Matrix(pixelCount, components);
+        double[][] vectors = matrix.getArray();
+        for (int p = 0, offset = 0; p < pixelCount; p++, offset += components) {
+            for (int c = 0; c < components; c++) {
+                vectors[p][c] = basis[offset + c];
+            }
+        }
+        return matrix;
     }
 
     // Gets the eigen values matrix.
@@ -363,13 +842,354 @@ public class TSCD {
         return eigenValues;
     }
 
+    // Replaces the trained state with a previously saved model (see ModelFile).
+
+    public void restore(Matrix averageFace, Matrix eigenVectors, Matrix eigenValues) {
+        restore(averageFace, eigenVectors, eigenValues, 0);
+    }
+
+    // Same as above, also restoring how many faces the model was trained on (0 if unknown).
+
+    public void restore(Matrix averageFace, Matrix eigenVectors, Matrix eigenValues, int trainingCount) {
+        if (eigenVectors.getRowDimension() != averageFace.getRowDimension()) {
+            throw new IllegalArgumentException(
+                "Eigenvectors have " + eigenVectors.getRowDimension() + " rows, but the average face has " +
+                averageFace.getRowDimension() + " pixels");
+        }
+
+        this.averageFace = averageFace;
+        this.eigenVectors = eigenVectors;
+        this.eigenValues = eigenValues;
+        this.numEigenVectors = eigenVectors.getColumnDimension();
+        this.trainingCount = trainingCount;
+        this.discardedEnergy = 0;
+        this.totalVariance = 0;
+        this.projectionBasis = null;
+        this.projectionData = null;
+        this.floatEigenVectors = null;
+        this.trained = true;
+        compactBasis();
+    }
+
+    // Completes training from the pixel-space scatter matrix S = A A^T of faceCount
+    // mean-subtracted faces (see StreamingTrainer). The eigenvectors of S are the eigenfaces
+    // themselves; each is scaled by sqrt(eigenvalue) to match the columns computeEigenvectors
+    // produces, and at most faceCount - 1 are kept since A has no higher rank. When that is
+    // well below the pixel count only those eigenpairs are computed, with the truncated solver.
+
+    void trainFromScatter(double[] mean, final Matrix scatter, int faceCount) {
+        final int pixelCount = mean.length;
+        int rank = Math.min(pixelCount, faceCount - 1);
+        if (rank < 1) {
+            throw new IllegalArgumentException("At least two faces are needed for training, got " + faceCount);
+        }
+
+        trained = false;
+        projectionBasis = null;
+        projectionData = null;
+        floatEigenVectors = null;
+        averageFace = new Matrix(mean, pixelCount);
+        totalVariance = scatter.trace();
+
+        final int wanted = solverRank > 0 ? Math.min(solverRank, rank) : rank;
+        if (wanted <= pixelCount / 4) {
+            System.out.println("Computing " + wanted + " leading eigenpairs of " + pixelCount + " × " + pixelCount + " scatter matrix");
+            TruncatedEigenSolver.Result result = TruncatedEigenSolver.solve(
+                new TruncatedEigenSolver.SymmetricOperator() {
+                    @Override
+                    public int size() {
+                        return pixelCount;
+                    }
+
+                    @Override
+                    public Matrix apply(Matrix block) {
+                        return MatrixKernels.times(scatter, block);
+                    }
+                }, wanted, solverTolerance, SOLVER_MAX_ITERATIONS);
+            double[] values = result.getValues();
+            eigenValues = new Matrix(values.length, values.length);
+            for (int i = 0; i < values.length; i++) {
+                eigenValues.set(i, i, values[i]);
+            }
+            eigenVectors = result.getVectors();
+        } else {
+            System.out.println("Computing eigen decomposition of " + pixelCount + " × " + pixelCount + " scatter matrix");
+            EigenvalueDecomposition eigen = scatter.eig();
+            eigenValues = eigen.getD();
+            eigenVectors = eigen.getV();
+        }
+
+        double[][] vectors = eigenVectors.getArray();
+        for (int j = 0; j < eigenVectors.getColumnDimension(); j++) {
+            double scale = Math.sqrt(Math.max(0, eigenValues.get(j, j)));
+            for (int i = 0; i < pixelCount; i++) {
+                vectors[i][j] *= scale;
+            }
+        }
+
+        sortEigenvectors();
+        if (eigenVectors.getColumnDimension() > wanted) {
+            eigenVectors = eigenVectors.getMatrix(0, pixelCount - 1, 0, wanted - 1);
+            eigenValues = eigenValues.getMatrix(0, wanted - 1, 0, wanted - 1);
+        }
+        normalizeEigenvectors();
+
+        trainingCount = faceCount;
+        discardedEnergy = 0;
+        trained = true;
+        compactBasis();
+        System.out.println("Training from scatter matrix completed with " + numEigenVectors + " eigenfaces");
+    }
+
+    // Folds new faces into the mean, eigenvectors and eigenvalues without retraining
+    // (sequential Karhunen-Loeve update). The cost depends on the number of pixels, the
+    // number of new faces and the number of eigenvectors kept, not on the faces already
+    // trained. The number of eigenvectors stays the same; the variance this truncation
+    // drops is tracked by getDrift(). Vectors projected with the old model should be
+    // projected again.
+
+    public void updateTrainingSet(Face[] faces) {
+        if (!trained) {
+            throw new IllegalStateException("System not trained yet");
+        }
+        if (trainingCount <= 0) {
+            throw new IllegalStateException("Model does not record its training count; retrain before updating");
+        }
+        if (faces == null || faces.length == 0) {
+            return;
+        }
+
+        // The QR step below needs at least as many pixels as batch columns (m + 1), and the
+        // SVD costs (k + m)^3, so a large batch is folded in as consecutive smaller ones
+        int pixelCount = averageFace.getRowDimension();
+        int maxBatch = Math.min(MAX_UPDATE_BATCH, pixelCount - 1);
+        if (maxBatch < 1) {
+            throw new IllegalStateException("Images of " + pixelCount + " pixel(s) are too small for an incremental update");
+        }
+        if (faces.length > maxBatch) {
+            for (int from = 0; from < faces.length; from += maxBatch) {
+                updateTrainingSet(Arrays.copyOfRange(faces, from, Math.min(faces.length, from + maxBatch)));
+            }
+            return;
+        }
+
+        int n = trainingCount;
+        int m = faces.length;
+        int k = numEigenVectors;
+
+        // New faces as columns, and their mean
+        double[][] batch = new double[pixelCount][m + 1];
+        double[] batchMean = new double[pixelCount];
+        for (int f = 0; f < m; f++) {
+            double[] pixels = faces[f].getPicture().getImagePixels();
+            checkPixelCount(pixels);
+            for (int i = 0; i < pixelCount; i++) {
+                batch[i][f] = pixels[i];
+                batchMean[i] += pixels[i] / m;
+            }
+        }
+
+        // Centre the batch and append the mean-shift column sqrt(nm / (n + m)) (batchMean - oldMean)
+        double shiftScale = Math.sqrt((double) n * m / (n + m));
+        double[] newMean = new double[pixelCount];
+        for (int i = 0; i < pixelCount; i++) {
+            double oldMean = averageFace.get(i, 0);
+            for (int f = 0; f < m; f++) {
+                batch[i][f] -= batchMean[i];
+            }
+            batch[i][m] = shiftScale * (batchMean[i] - oldMean);
+            newMean[i] = (n * oldMean + m * batchMean[i]) / (n + m);
+        }
+        Matrix B = new Matrix(batch);
+
+        // Training leaves each eigenvector column scaled by its singular value sqrt(eigenvalue),
+        // so recover the orthonormal basis first and scale the updated one the same way below
+        double[] sigma = new double[k];
+        Matrix U = eigenVectorMatrix().copy();
+        for (int j = 0; j < k; j++) {
+            sigma[j] = Math.sqrt(Math.max(0, eigenValues.get(j, j)));
+            double norm = U.getMatrix(0, pixelCount - 1, j, j).normF();
+            if (norm > 0) {
+                for (int i = 0; i < pixelCount; i++) {
+                    U.set(i, j, U.get(i, j) / norm);
+                }
+            }
+        }
+
+        // Split the batch into its part inside the current eigenspace and an orthonormal remainder
+        Matrix projection = MatrixKernels.transposeTimes(U, B);  // k × (m + 1)
+        Matrix residual = B.minus(MatrixKernels.times(U, projection));
+        QRDecomposition qr = new QRDecomposition(residual);
+        Matrix Q = qr.getQ();                                    // pixels × (m + 1)
+        Matrix R = qr.getR();                                    // (m + 1) × (m + 1)
+
+        // [ diag(sigma)  projection ]
+        // [     0            R      ]
+        int size = k + m + 1;
+        Matrix middle = new Matrix(size, size);
+        for (int i = 0; i < k; i++) {
+            middle.set(i, i, sigma[i]);
+        }
+        middle.setMatrix(0, k - 1, k, size - 1, projection);
+        middle.setMatrix(k, size - 1, k, size - 1, R);
+
+        SingularValueDecomposition svd = middle.svd();
+        double[] singularValues = svd.getSingularValues();
+        int kept = Math.min(k, n + m - 1);
+
+        Matrix basis = new Matrix(pixelCount, size);
+        basis.setMatrix(0, pixelCount - 1, 0, k - 1, U);
+        basis.setMatrix(0, pixelCount - 1, k, size - 1, Q);
+        Matrix rotation = svd.getU().getMatrix(0, size - 1, 0, kept - 1);
+        for (int j = 0; j < kept; j++) {
+            for (int i = 0; i < size; i++) {
+                rotation.set(i, j, rotation.get(i, j) * singularValues[j]);
+            }
+        }
+        eigenVectors = MatrixKernels.times(basis, rotation);
+
+        eigenValues = new Matrix(kept, kept);
+        for (int i = 0; i < singularValues.length; i++) {
+            double energy = singularValues[i] * singularValues[i];
+            if (i < kept) {
+                eigenValues.set(i, i, energy);
+            } else {
+                discardedEnergy += energy;
+            }
+        }
+
+        if (totalVariance > 0) {
+            double norm = B.normF();
+            totalVariance += norm * norm;  // The new scatter is the old one plus B B^T
+        }
+        averageFace = new Matrix(newMean, pixelCount);
+        numEigenVectors = kept;
+        trainingCount = n + m;
+        projectionBasis = null;
+        projectionData = null;
+        floatEigenVectors = null;
+        compactBasis();
+
+        System.out.println("Eigenspace updated with " + m + " faces, drift now " + getDrift());
+    }
+
+    // Fraction of the training variance dropped by incremental updates since the last full
+    // training. Grows as new faces pull the eigenspace away from the one being kept.
+
+    public double getDrift() {
+        if (eigenValues == null) {
+            return 0;
+        }
+        double retained = 0;
+        for (double value : diag(eigenValues)) {
+            retained += Math.max(0, value);
+        }
+        double total = retained + discardedEnergy;
+        return total > 0 ? discardedEnergy / total : 0;
+    }
+
+    // Whether incremental updates have dropped more than maxDrift of the variance,
+    // so that a full retrain with processTrainingSet would be worthwhile.
+
+    public boolean needsRetrain(double maxDrift) {
+        return getDrift() > maxDrift;
+    }
+
+    // Gets the fraction of the training variance explained by the first k eigenvectors,
+    // at index k - 1, for every eigenvector currently kept.
+
+    public double[] getVarianceCurve() {
+        double[] values = diag(eigenValues);
+        double total = totalVariance;
+        if (total <= 0) {
+            for (double value : values) {
+                total += Math.max(0, value);
+            }
+        }
+        double[] curve = new double[values.length];
+        double sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += Math.max(0, values[i]);
+            curve[i] = total > 0 ? Math.min(1.0, sum / total) : 0;
+        }
+        return curve;
+    }
+
+    // Gets the number of faces folded into the model, 0 if unknown.
+
+    public int getTrainingCount() {
+        return trainingCount;
+    }
+
+    // Sets how many eigenpairs training computes with the truncated solver.
+    // 0 (the default) runs a full decomposition of the faces × faces matrix.
+
+    public void setSolverRank(int solverRank) {
+        if (solverRank < 0) {
+            throw new IllegalArgumentException("Solver rank must not be negative, got " + solverRank);
+        }
+        this.solverRank = solverRank;
+    }
+
+    // Trains on single-precision pixels and projects with a single-precision basis.
+    // Products are still accumulated in double. Takes effect from the next training.
+
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+        this.projectionData = null;
+    }
+
+    // Sets the fraction (0 to 1] of the training variance the kept eigenvectors must explain.
+    // Training then keeps the fewest eigenvectors that do, and drops the rest of the basis.
+    // 0 (the default) keeps every significant eigenvector.
+
+    public void setRetainedVariance(double retainedVariance) {
+        if (retainedVariance < 0 || retainedVariance > 1) {
+            throw new IllegalArgumentException("Retained variance must be between 0 and 1, got " + retainedVariance);
+        }
+        this.retainedVariance = retainedVariance;
+    }
+
+    // Sets the most eigenvectors training keeps, bounding basis memory (pixels × k values)
+    // and the cost of every projection and gallery scan. 0 (the default) sets no limit.
+
+    public void setMaxComponents(int maxComponents) {
+        if (maxComponents < 0) {
+            throw new IllegalArgumentException("Component limit must not be negative, got " + maxComponents);
+        }
+        this.maxComponents = maxComponents;
+    }
+
+    // Sets which eigenproblem training solves: FORMULATION_AUTO (the default) picks the
+    // covariance formulation once there are more faces than pixels.
+
+    public void setFormulation(int formulation) {
+        if (formulation != FORMULATION_AUTO && formulation != FORMULATION_SNAPSHOT
+                && formulation != FORMULATION_COVARIANCE) {
+            throw new IllegalArgumentException("Unknown formulation: " + formulation);
+        }
+        this.formulation = formulation;
+    }
+
+    // Sets the residual tolerance of the truncated solver, relative to the largest eigenvalue.
+
+    public void setSolverTolerance(double solverTolerance) {
+        this.solverTolerance = solverTolerance;
+    }
+
     // Resets the training state.
     
     public void reset() {
         averageFace = null;
         eigenVectors = null;
+        floatEigenVectors = null;
         eigenValues = null;
         trained = false;
         numEigenVectors = 0;
+        trainingCount = 0;
+        discardedEnergy = 0;
+        totalVariance = 0;
+        projectionBasis = null;
+        projectionData = null;
     }
 }
\ No newline at end of file
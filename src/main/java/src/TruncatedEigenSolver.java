@@ -0,0 +1,127 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Random;
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import Jama.QRDecomposition;
+
+// Computes only the leading eigenpairs of a symmetric positive semi-definite operator
+// by randomized subspace iteration with a Rayleigh-Ritz step. Each iteration costs one
+// application of the operator to an n × (k + oversampling) block, so the full matrix
+// never has to be formed or decomposed.
+
+public final class TruncatedEigenSolver {
+    private static final int OVERSAMPLING = 10;
+    private static final long SEED = 42L;
+
+    private TruncatedEigenSolver() {
+    }
+
+    // A symmetric operator S given by its action on a block of column vectors
+
+    public interface SymmetricOperator {
+        int size();
+
+        Matrix apply(Matrix block);
+    }
+
+    // The leading eigenvalues (descending) and their eigenvectors as columns
+
+    public static class Result {
+        private final double[] values;
+        private final Matrix vectors;
+
+        Result(double[] values, Matrix vectors) {
+            this.values = values;
+            this.vectors = vectors;
+        }
+
+        public double[] getValues() {
+            return values;
+        }
+
+        public Matrix getVectors() {
+            return vectors;
+        }
+    }
+
+    // Iterates until every one of the k leading Ritz pairs has a residual of at most
+    // tolerance times the largest eigenvalue, or maxIterations is reached.
+
+    public static Result solve(SymmetricOperator operator, int k, double tolerance, int maxIterations) {
+        int n = operator.size();
+        if (k <= 0 || k > n) {
+            throw new IllegalArgumentException("Cannot compute " + k + " eigenpairs of a " + n + " × " + n + " operator");
+        }
+        int blockSize = Math.min(n, k + OVERSAMPLING);
+
+        Random random = new Random(SEED);
+        Matrix start = new Matrix(n, blockSize);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < blockSize; j++) {
+                start.set(i, j, random.nextGaussian());
+            }
+        }
+        Matrix q = orthonormalize(start);
+
+        double[] values = null;
+        Matrix vectors = null;
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            Matrix z = operator.apply(q);
+
+            // Rayleigh-Ritz: eigenpairs of the projected operator Q^T S Q
+            Matrix t = q.transpose().times(z);
+            t = t.plus(t.transpose()).times(0.5);
+            EigenvalueDecomposition eigen = t.eig();
+            double[] ritzValues = eigen.getRealEigenvalues();
+            Integer[] order = descendingOrder(ritzValues);
+
+            Matrix w = new Matrix(blockSize, k);
+            values = new double[k];
+            for (int j = 0; j < k; j++) {
+                values[j] = ritzValues[order[j]];
+                w.setMatrix(0, blockSize - 1, j, j,
+                    eigen.getV().getMatrix(0, blockSize - 1, order[j], order[j]));
+            }
+            vectors = q.times(w);
+
+            // Residuals ||S x - theta x|| of the leading Ritz pairs
+            Matrix residual = z.times(w);
+            double worst = 0;
+            for (int j = 0; j < k; j++) {
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    double r = residual.get(i, j) - values[j] * vectors.get(i, j);
+                    sum += r * r;
+                }
+                worst = Math.max(worst, Math.sqrt(sum));
+            }
+
+            double scale = Math.max(Math.abs(values[0]), Double.MIN_NORMAL);
+            if (worst <= tolerance * scale) {
+                System.out.println("Truncated eigensolver converged after " + iteration + " iterations");
+                return new Result(values, vectors);
+            }
+
+            q = orthonormalize(z);
+        }
+
+        System.out.println("Truncated eigensolver stopped after " + maxIterations +
+                           " iterations without reaching tolerance " + tolerance);
+        return new Result(values, vectors);
+    }
+
+    private static Matrix orthonormalize(Matrix block) {
+        return new QRDecomposition(block).getQ();
+    }
+
+    private static Integer[] descendingOrder(double[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+        return order;
+    }
+}
@@ -0,0 +1,130 @@
+package src;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Top-k Euclidean scan of one probe over a gallery, with the DistanceMeasure the feature
+// space started with (getFeatureVector() twice per dimension, a square root per row), with
+// the current EUCLIDEAN_DISTANCE measure, and with the squared, early-abandoned kernel the
+// scans use, on double and float rows. Not run by mvn test; run it with
+//
+//   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+//   java -cp target/test-classes:target/classes:$(cat target/cp.txt) src.EuclideanKernelBenchmark
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EuclideanKernelBenchmark {
+
+    // The Euclidean measure before the ranking kernel, kept here as the baseline
+
+    private static final DistanceMeasure LEGACY_EUCLIDEAN = new DistanceMeasure() {
+        @Override
+        public double calculateDistance(FeatureVector fv1, FeatureVector fv2) {
+            double sum = 0;
+            for (int i = 0; i < fv1.getFeatureVector().length; i++) {
+                double diff = fv1.getFeatureVector()[i] - fv2.getFeatureVector()[i];
+                sum += diff * diff;
+            }
+            return Math.sqrt(sum);
+        }
+    };
+
+    @Param({"10", "64"})
+    public int dimension;
+
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"10"})
+    public int k;
+
+    private FeatureVector[] vectors;
+    private FeatureMatrix doubleRows;
+    private FeatureMatrix floatRows;
+    private FeatureVector probe;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        vectors = new FeatureVector[rows];
+        doubleRows = new FeatureMatrix(false);
+        floatRows = new FeatureMatrix(true);
+        for (int row = 0; row < rows; row++) {
+            double[] vector = new double[dimension];
+            for (int d = 0; d < dimension; d++) {
+                vector[d] = random.nextGaussian() * 1000 / (1 + d);
+            }
+            vectors[row] = new FeatureVector();
+            vectors[row].setFeatureVector(vector);
+            doubleRows = doubleRows.append(vector, row % 100);
+            floatRows = floatRows.append(vector, row % 100);
+        }
+        double[] p = new double[dimension];
+        for (int d = 0; d < dimension; d++) {
+            p[d] = random.nextGaussian() * 1000 / (1 + d);
+        }
+        probe = new FeatureVector();
+        probe.setFeatureVector(p);
+    }
+
+    @Benchmark
+    public NearestNeighbours legacyDistanceMeasure() {
+        NearestNeighbours nearest = new NearestNeighbours(k);
+        for (int row = 0; row < rows; row++) {
+            nearest.offer(LEGACY_EUCLIDEAN.calculateDistance(probe, vectors[row]), row);
+        }
+        return nearest;
+    }
+
+    @Benchmark
+    public NearestNeighbours euclideanDistanceMeasure() {
+        NearestNeighbours nearest = new NearestNeighbours(k);
+        for (int row = 0; row < rows; row++) {
+            nearest.offer(FeatureSpace.EUCLIDEAN_DISTANCE.calculateDistance(probe, doubleRows, row), row);
+        }
+        return nearest;
+    }
+
+    @Benchmark
+    public NearestNeighbours earlyAbandonKernel() {
+        return scan(doubleRows);
+    }
+
+    @Benchmark
+    public NearestNeighbours earlyAbandonKernelFloat() {
+        return scan(floatRows);
+    }
+
+    private NearestNeighbours scan(FeatureMatrix gallery) {
+        double[] p = probe.getFeatureVector();
+        NearestNeighbours nearest = new NearestNeighbours(k);
+        for (int row = 0; row < rows; row++) {
+            nearest.offer(gallery.squaredDistance(p, row, nearest.worstDistance()), row);
+        }
+        nearest.squareRootDistances();
+        return nearest;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EuclideanKernelBenchmark.class.getSimpleName()).build()).run();
+    }
+}
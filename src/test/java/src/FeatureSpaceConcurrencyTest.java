@@ -0,0 +1,162 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+// Hammers a feature space with probes from several threads while one thread enrolls
+// batches into it. Every probe must see a whole number of batches, never fewer rows than
+// its previous probe, and exactly the neighbours a plain scan of its own snapshot finds.
+
+public class FeatureSpaceConcurrencyTest {
+
+    private static final int DIMENSION = 16;
+    private static final int CLASSES = 50;
+    private static final int BATCH = 250;
+    private static final int BATCHES = 40;
+    private static final int PROBE_THREADS = 4;
+    private static final int K = 5;
+
+    @Test
+    public void probesDuringBulkEnrollmentScan() throws Exception {
+        FeatureSpace space = new FeatureSpace();
+        space.setParallelThreshold(1000);
+        space.setSearchPool(new ForkJoinPool(2));
+        hammer(space);
+    }
+
+    @Test
+    public void probesDuringBulkEnrollmentThroughIndex() throws Exception {
+        FeatureSpace space = new FeatureSpace();
+        space.setIndex(new KdTreeIndex());
+        hammer(space);
+    }
+
+    @Test
+    public void probesDuringBulkEnrollmentSinglePrecision() throws Exception {
+        hammer(new FeatureSpace(true));
+    }
+
+    private void hammer(FeatureSpace space) throws Exception {
+        Random random = new Random(42);
+        double[][] centres = new double[CLASSES][DIMENSION];
+        for (double[] centre : centres) {
+            for (int d = 0; d < DIMENSION; d++) {
+                centre[d] = random.nextGaussian() * 10;
+            }
+        }
+
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean enrolling = new AtomicBoolean(true);
+        AtomicInteger probes = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(PROBE_THREADS);
+
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < PROBE_THREADS; t++) {
+            long seed = t;
+            Thread reader = new Thread(() -> {
+                Random local = new Random(seed);
+                int lastSize = 0;
+                started.countDown();
+                try {
+                    do {
+                        FeatureSpace.Snapshot snapshot = space.getSnapshot();
+                        int size = snapshot.size();
+                        assertTrue(size >= lastSize, "Snapshot shrank from " + lastSize + " to " + size);
+                        assertEquals(0, size % BATCH, "Snapshot exposes a partial batch of " + size + " rows");
+                        assertEquals(size, snapshot.getFeatureMatrix().size());
+                        lastSize = size;
+
+                        FeatureVector probe = probe(centres, local);
+                        NearestNeighbours nearest = space.nearestNeighbours(
+                            snapshot, FeatureSpace.EUCLIDEAN_DISTANCE, probe, K);
+                        checkAgainstScan(snapshot, probe.getFeatureVector(), nearest);
+                        if (probes.incrementAndGet() % 64 == 0) {
+                            // knn reads the published statistics too, but logs every decision
+                            assertNotNull(space.knn(FeatureSpace.EUCLIDEAN_DISTANCE, probe, K));
+                        }
+                    } while (enrolling.get());
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+
+        started.await();
+        try {
+            for (int b = 0; b < BATCHES; b++) {
+                String[] paths = new String[BATCH];
+                String[] classifications = new String[BATCH];
+                double[][] vectors = new double[BATCH][];
+                for (int i = 0; i < BATCH; i++) {
+                    int c = random.nextInt(CLASSES);
+                    paths[i] = "face" + (b * BATCH + i) + ".jpg";
+                    classifications[i] = "person" + c;
+                    vectors[i] = sample(centres[c], random);
+                }
+                space.insertIntoDatabase(paths, classifications, vectors);
+            }
+        } finally {
+            enrolling.set(false);
+            for (Thread reader : readers) {
+                reader.join(TimeUnit.MINUTES.toMillis(1));
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Probe failed during enrollment", failures.peek());
+        }
+        assertEquals(BATCH * BATCHES, space.getFeatureSpaceSize());
+        assertTrue(probes.get() >= PROBE_THREADS, "Only " + probes.get() + " probes ran");
+        System.out.println("Ran " + probes.get() + " probes during " + BATCHES + " batches of " + BATCH);
+    }
+
+    // Compares a result with the k smallest distances of a plain scan of the same snapshot
+
+    private static void checkAgainstScan(FeatureSpace.Snapshot snapshot, double[] probe, NearestNeighbours nearest) {
+        FeatureMatrix vectors = snapshot.getFeatureMatrix();
+        int size = vectors.size();
+        assertEquals(Math.min(K, size), nearest.size());
+
+        double[] distances = new double[size];
+        for (int row = 0; row < size; row++) {
+            distances[row] = Math.sqrt(vectors.squaredDistance(probe, row));
+        }
+        Arrays.sort(distances);
+        for (int i = 0; i < nearest.size(); i++) {
+            int row = nearest.getIndex(i);
+            assertTrue(row >= 0 && row < size, "Row " + row + " is outside a snapshot of " + size);
+            assertEquals(distances[i], nearest.getDistance(i), 1e-9);
+        }
+    }
+
+    private static FeatureVector probe(double[][] centres, Random random) {
+        FeatureVector fv = new FeatureVector();
+        fv.setFeatureVector(sample(centres[random.nextInt(centres.length)], random));
+        return fv;
+    }
+
+    private static double[] sample(double[] centre, Random random) {
+        double[] vector = new double[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = centre[d] + random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,118 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Checks that k-d tree searches return exactly what a full scan returns, rows and
+// distances in the same order, on the sample face gallery. Every face is enrolled several
+// times, so the gallery holds duplicate points and every probe meets exact ties, which
+// both searches must break on the lower row. Small leaves force many incremental splits.
+
+public class KdTreeIndexTest {
+
+    private static final File FACE_IMAGES = new File("FaceImages");
+    private static final int COMPONENTS = 10;
+    private static final int COPIES = 4;
+
+    private static String[] paths;
+    private static String[] classifications;
+    private static double[][] vectors;
+
+    @BeforeAll
+    public static void project() throws Exception {
+        List<Face> faces = new ArrayList<>();
+        File[] classes = FACE_IMAGES.listFiles(File::isDirectory);
+        Arrays.sort(classes);
+        for (File directory : classes) {
+            File[] files = directory.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                Face face = new Face(file, true);
+                face.setClassification(directory.getName());
+                faces.add(face);
+            }
+        }
+        TSCD model = new TSCD();
+        model.processTrainingSet(faces.toArray(new Face[0]), new Main.ProgressTracker());
+
+        int count = faces.size();
+        paths = new String[count * COPIES];
+        classifications = new String[count * COPIES];
+        vectors = new double[count * COPIES][];
+        for (int f = 0; f < count; f++) {
+            double[] vector = model.getEigenFaces(faces.get(f).getPicture(), COMPONENTS);
+            for (int c = 0; c < COPIES; c++) {
+                int row = c * count + f;
+                paths[row] = faces.get(f).getFile().getPath();
+                classifications[row] = faces.get(f).getClassification();
+                vectors[row] = vector.clone();
+            }
+        }
+    }
+
+    @Test
+    public void builtTreeMatchesScan() {
+        for (int leafSize : new int[] {1, 2, KdTreeIndex.DEFAULT_LEAF_SIZE}) {
+            FeatureSpace indexed = new FeatureSpace();
+            indexed.insertIntoDatabase(paths, classifications, vectors);
+            indexed.setIndex(new KdTreeIndex(leafSize));
+            compare(indexed);
+        }
+    }
+
+    @Test
+    public void incrementallySplitTreeMatchesScan() {
+        for (int leafSize : new int[] {1, 2, 3}) {
+            FeatureSpace indexed = new FeatureSpace();
+            int seed = vectors.length / 3;
+            indexed.insertIntoDatabase(Arrays.copyOf(paths, seed), Arrays.copyOf(classifications, seed),
+                                       Arrays.copyOf(vectors, seed));
+            indexed.setIndex(new KdTreeIndex(leafSize));
+            for (int row = seed; row < vectors.length; row++) {
+                indexed.insertIntoDatabase(new String[] {paths[row]}, new String[] {classifications[row]},
+                                           new double[][] {vectors[row]});
+            }
+            compare(indexed);
+        }
+    }
+
+    // Probes with every gallery point, so each has COPIES exact ties at distance 0, and with
+    // perturbed points, for k from 1 to the whole gallery
+
+    private static void compare(FeatureSpace indexed) {
+        FeatureSpace scanned = new FeatureSpace();
+        scanned.insertIntoDatabase(paths, classifications, vectors);
+
+        Random random = new Random(42);
+        List<double[]> probes = new ArrayList<>(Arrays.asList(vectors));
+        for (double[] vector : vectors) {
+            double[] probe = vector.clone();
+            for (int d = 0; d < probe.length; d++) {
+                probe[d] += random.nextGaussian() * Math.abs(vector[d]) / 2;
+            }
+            probes.add(probe);
+        }
+
+        for (int k : new int[] {1, COPIES, 10, vectors.length}) {
+            for (double[] probe : probes) {
+                FeatureVector fv = new FeatureVector();
+                fv.setFeatureVector(probe);
+                NearestNeighbours expected = scanned.nearestNeighbours(FeatureSpace.EUCLIDEAN_DISTANCE, fv, k);
+                NearestNeighbours actual = indexed.nearestNeighbours(FeatureSpace.EUCLIDEAN_DISTANCE, fv, k);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.getIndex(i), actual.getIndex(i), "Row " + i + " of top " + k);
+                    assertEquals(expected.getDistance(i), actual.getDistance(i), 0.0, "Distance " + i + " of top " + k);
+                }
+            }
+        }
+    }
+}
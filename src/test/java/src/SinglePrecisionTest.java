@@ -0,0 +1,132 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Trains the sample faces in double and in single precision and reports how far the
+// single-precision eigenvalues, projections and neighbour rankings deviate from the
+// double path. The bounds leave several orders of magnitude over the measured values.
+
+public class SinglePrecisionTest {
+
+    private static final File FACE_IMAGES = new File("FaceImages");
+    private static final double MAX_EIGENVALUE_DEVIATION = 1e-5;     // Relative to the largest eigenvalue
+    private static final double MAX_COEFFICIENT_DEVIATION = 1e-5;    // Relative to the largest coefficient
+    private static final int NEIGHBOURS = 3;
+
+    private static Face[] faces;
+    private static Picture[] pictures;
+    private static TSCD doubleModel;
+    private static TSCD singleModel;
+
+    @BeforeAll
+    public static void train() throws Exception {
+        List<Face> loaded = new ArrayList<>();
+        File[] classes = FACE_IMAGES.listFiles(File::isDirectory);
+        Arrays.sort(classes);
+        for (File directory : classes) {
+            File[] files = directory.listFiles();
+            Arrays.sort(files);
+            for (File file : files) {
+                Face face = new Face(file);
+                face.setClassification(directory.getName());
+                face.load(true);
+                loaded.add(face);
+            }
+        }
+        faces = loaded.toArray(new Face[0]);
+        pictures = new Picture[faces.length];
+        for (int i = 0; i < faces.length; i++) {
+            pictures[i] = faces[i].getPicture();
+        }
+
+        doubleModel = new TSCD();
+        doubleModel.processTrainingSet(faces, new Main.ProgressTracker());
+        singleModel = new TSCD();
+        singleModel.setSinglePrecision(true);
+        singleModel.processTrainingSet(faces, new Main.ProgressTracker());
+    }
+
+    @Test
+    public void eigenvaluesMatchDoublePrecision() {
+        int k = doubleModel.getNumEigenVectors();
+        assertEquals(k, singleModel.getNumEigenVectors());
+
+        double largest = doubleModel.getEigenValues().get(0, 0);
+        double deviation = 0;
+        for (int j = 0; j < k; j++) {
+            double difference = singleModel.getEigenValues().get(j, j) - doubleModel.getEigenValues().get(j, j);
+            deviation = Math.max(deviation, Math.abs(difference) / largest);
+        }
+        System.out.println("Single-precision eigenvalue deviation: " + deviation + " of the largest");
+        assertTrue(deviation <= MAX_EIGENVALUE_DEVIATION, "Eigenvalues deviate by " + deviation);
+    }
+
+    @Test
+    public void projectionsMatchDoublePrecision() {
+        int k = doubleModel.getNumEigenVectors();
+        double[][] expected = doubleModel.getEigenFaces(pictures, k);
+        double[][] actual = singleModel.getEigenFaces(pictures, k);
+
+        // Each eigenvector is only defined up to its sign, so align the components first
+        double largest = 0;
+        double deviation = 0;
+        for (int j = 0; j < k; j++) {
+            double agreement = 0;
+            for (int f = 0; f < faces.length; f++) {
+                agreement += expected[f][j] * actual[f][j];
+            }
+            double sign = agreement < 0 ? -1 : 1;
+            for (int f = 0; f < faces.length; f++) {
+                largest = Math.max(largest, Math.abs(expected[f][j]));
+                deviation = Math.max(deviation, Math.abs(sign * actual[f][j] - expected[f][j]));
+            }
+        }
+        deviation /= largest;
+        System.out.println("Single-precision projection deviation: " + deviation + " of the largest coefficient");
+        assertTrue(deviation <= MAX_COEFFICIENT_DEVIATION, "Projections deviate by " + deviation);
+
+        // Batch and single-picture projection read the same float basis
+        for (int f = 0; f < faces.length; f++) {
+            double[] single = singleModel.getEigenFaces(pictures[f], k);
+            for (int j = 0; j < k; j++) {
+                assertEquals(actual[f][j], single[j], 1e-9 * largest);
+            }
+        }
+
+        // The single-precision gallery must rank the same neighbours for every sample face
+        FeatureSpace doubleSpace = new FeatureSpace();
+        doubleSpace.insertIntoDatabase(faces, expected);
+        FeatureSpace singleSpace = new FeatureSpace(true);
+        singleSpace.insertIntoDatabase(faces, actual);
+        int identical = 0;
+        for (int f = 0; f < faces.length; f++) {
+            NearestNeighbours doubleNearest = nearest(doubleSpace, expected[f]);
+            NearestNeighbours singleNearest = nearest(singleSpace, actual[f]);
+            boolean same = doubleNearest.size() == singleNearest.size();
+            for (int i = 0; same && i < doubleNearest.size(); i++) {
+                same = doubleNearest.getIndex(i) == singleNearest.getIndex(i);
+            }
+            if (same) {
+                identical++;
+            }
+        }
+        System.out.println("Single-precision top-" + NEIGHBOURS + " neighbours identical for " +
+                           identical + "/" + faces.length + " probes");
+        assertEquals(faces.length, identical);
+    }
+
+    private static NearestNeighbours nearest(FeatureSpace space, double[] vector) {
+        FeatureVector fv = new FeatureVector();
+        fv.setFeatureVector(vector);
+        return space.nearestNeighbours(FeatureSpace.EUCLIDEAN_DISTANCE, fv, NEIGHBOURS);
+    }
+}
@@ -0,0 +1,116 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+// Trains the sample faces once through StreamingTrainer.fromFiles and once through
+// processTrainingSet, and checks that both give the same model in the same pixel space:
+// the same average face, eigenvalues and projections of the cropped faces probes use.
+
+public class StreamingTrainerTest {
+
+    private static final File FACE_IMAGES = new File("FaceImages");
+    private static final double MAX_DEVIATION = 1e-6;    // Relative to the largest value compared
+
+    @Test
+    public void fromFilesMatchesProcessTrainingSet() throws Exception {
+        List<File> files = new ArrayList<>();
+        List<Face> faces = new ArrayList<>();
+        File[] classes = FACE_IMAGES.listFiles(File::isDirectory);
+        Arrays.sort(classes);
+        for (File directory : classes) {
+            File[] images = directory.listFiles();
+            Arrays.sort(images);
+            for (File file : images) {
+                Face face = new Face(file, true);
+                face.setClassification(directory.getName());
+                files.add(file);
+                faces.add(face);
+            }
+        }
+
+        TSCD expected = new TSCD();
+        expected.processTrainingSet(faces.toArray(new Face[0]), new Main.ProgressTracker());
+
+        AtomicInteger loads = new AtomicInteger();
+        TSCD streamed = new TSCD();
+        new StreamingTrainer().train(StreamingTrainer.fromFiles(files, file -> {
+            loads.incrementAndGet();
+            try {
+                return new Face(file, true).getPicture();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }), streamed);
+        assertEquals(files.size(), loads.get(), "Each image should be decoded once");
+
+        // The default loader crops the same way
+        TSCD defaultLoader = new TSCD();
+        new StreamingTrainer().train(StreamingTrainer.fromFiles(files), defaultLoader);
+        assertEquals(0, deviation(streamed.getAverageFace().getColumnPackedCopy(),
+                                  defaultLoader.getAverageFace().getColumnPackedCopy()));
+
+        double meanDeviation = deviation(expected.getAverageFace().getColumnPackedCopy(),
+                                         streamed.getAverageFace().getColumnPackedCopy());
+        System.out.println("Streaming average face deviation: " + meanDeviation);
+        assertTrue(meanDeviation <= MAX_DEVIATION, "Average faces deviate by " + meanDeviation);
+
+        int k = expected.getNumEigenVectors();
+        assertEquals(k, streamed.getNumEigenVectors());
+        double[] expectedValues = new double[k];
+        double[] streamedValues = new double[k];
+        for (int j = 0; j < k; j++) {
+            expectedValues[j] = expected.getEigenValues().get(j, j);
+            streamedValues[j] = streamed.getEigenValues().get(j, j);
+        }
+        double valueDeviation = deviation(expectedValues, streamedValues);
+        System.out.println("Streaming eigenvalue deviation: " + valueDeviation);
+        assertTrue(valueDeviation <= MAX_DEVIATION, "Eigenvalues deviate by " + valueDeviation);
+
+        // Each eigenvector is only defined up to its sign, so align the components first
+        Picture[] pictures = new Picture[faces.size()];
+        for (int f = 0; f < pictures.length; f++) {
+            pictures[f] = faces.get(f).getPicture();
+        }
+        double[][] a = expected.getEigenFaces(pictures, k);
+        double[][] b = streamed.getEigenFaces(pictures, k);
+        double largest = 0;
+        double projectionDeviation = 0;
+        for (int j = 0; j < k; j++) {
+            double agreement = 0;
+            for (int f = 0; f < a.length; f++) {
+                agreement += a[f][j] * b[f][j];
+            }
+            double sign = agreement < 0 ? -1 : 1;
+            for (int f = 0; f < a.length; f++) {
+                largest = Math.max(largest, Math.abs(a[f][j]));
+                projectionDeviation = Math.max(projectionDeviation, Math.abs(sign * b[f][j] - a[f][j]));
+            }
+        }
+        projectionDeviation /= largest;
+        System.out.println("Streaming projection deviation: " + projectionDeviation + " of the largest coefficient");
+        assertTrue(projectionDeviation <= MAX_DEVIATION, "Projections deviate by " + projectionDeviation);
+    }
+
+    // Largest absolute difference relative to the largest absolute expected value
+
+    private static double deviation(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        double largest = 0;
+        double difference = 0;
+        for (int i = 0; i < expected.length; i++) {
+            largest = Math.max(largest, Math.abs(expected[i]));
+            difference = Math.max(difference, Math.abs(actual[i] - expected[i]));
+        }
+        return largest > 0 ? difference / largest : difference;
+    }
+}